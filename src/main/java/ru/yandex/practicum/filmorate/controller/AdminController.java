@@ -0,0 +1,23 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import ru.yandex.practicum.filmorate.model.SnapshotResult;
+import ru.yandex.practicum.filmorate.service.SnapshotService;
+
+@RestController
+@ConditionalOnProperty(name = "filmorate.storage.engine", havingValue = "db", matchIfMissing = true)
+@RequestMapping("/admin")
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class AdminController {
+    private final SnapshotService snapshotService;
+
+    @PostMapping("snapshot")
+    @ResponseStatus(HttpStatus.OK)
+    public SnapshotResult exportSnapshot() {
+        return snapshotService.exportSnapshot();
+    }
+}
@@ -1,13 +1,23 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.model.BatchResult;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Page;
+import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 @RestController
@@ -15,6 +25,7 @@ import java.util.*;
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
 public class FilmController {
     private final FilmService filmService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
@@ -22,6 +33,12 @@ public class FilmController {
         return filmService.addFilm(film);
     }
 
+    @PostMapping("batch")
+    @ResponseStatus(HttpStatus.OK)
+    public BatchResult addFilms(@RequestBody List<Film> films) {
+        return filmService.addFilms(films);
+    }
+
     @PutMapping
     @ResponseStatus(HttpStatus.OK)
     public Film updateFilm(@Valid @RequestBody Film film) {
@@ -34,23 +51,68 @@ public class FilmController {
         return filmService.getFilms();
     }
 
+    @GetMapping(value = "export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportFilms() {
+        StreamingResponseBody body = out -> filmService.exportFilms(film -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(film));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @GetMapping(params = "limit")
+    @ResponseStatus(HttpStatus.OK)
+    public Page<Film> getFilms(@RequestParam(defaultValue = "0") Integer after, @RequestParam Integer limit) {
+        return filmService.getFilms(after, limit);
+    }
+
     @PutMapping("{id}/like/{userId}")
     public void addLike(@PathVariable Integer userId, @PathVariable("id") Integer filmId) {
         filmService.addLike(userId, filmId);
     }
 
+    @GetMapping("search")
+    public List<Film> searchFilms(@RequestParam(defaultValue = "") String q,
+                                  @RequestParam(defaultValue = "20") Integer count) {
+        return filmService.searchFilms(q, count);
+    }
+
     @GetMapping("{id}")
     public Film getFilm(@PathVariable("id") Integer filmId) {
         return filmService.getFilm(filmId);
     }
 
+    @GetMapping("{id}/likes")
+    public Page<User> getLikes(@PathVariable("id") Integer filmId, @RequestParam(defaultValue = "0") Integer after,
+                               @RequestParam(defaultValue = "100") Integer limit) {
+        return filmService.getLikes(filmId, after, limit);
+    }
+
+    @PostMapping("likes/batch")
+    @ResponseStatus(HttpStatus.OK)
+    public BatchResult addLikes(@RequestBody List<Like> likes) {
+        return filmService.addLikes(likes);
+    }
+
     @DeleteMapping("{id}/like/{userId}")
     public void deleteLike(@PathVariable Integer userId, @PathVariable("id") Integer filmId) {
         filmService.deleteLike(userId,filmId);
     }
 
+    @GetMapping("{id}/similar")
+    public List<Film> getSimilarFilms(@PathVariable("id") Integer filmId,
+                                      @RequestParam(defaultValue = "10") Integer count) {
+        return filmService.getSimilarFilms(filmId, count);
+    }
+
     @GetMapping("popular")
-    public List<Film> getPopularFilms(@RequestParam(defaultValue = "10") Integer count) {
-        return filmService.getSortedFilms(count);
+    public List<Film> getPopularFilms(@RequestParam(defaultValue = "10") Integer count,
+                                      @RequestParam(required = false) Integer genreId,
+                                      @RequestParam(required = false) Integer year) {
+        return filmService.getSortedFilms(count, genreId, year);
     }
 }
@@ -1,13 +1,29 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.CommonFilms;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FilmService;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import javax.validation.Valid;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 @RestController
@@ -15,6 +31,8 @@ import java.util.*;
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
 public class UserController {
     private final UserService userService;
+    private final FilmService filmService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
@@ -22,6 +40,15 @@ public class UserController {
         return userService.addUser(user);
     }
 
+    @PostMapping(value = "import", consumes = {"text/csv", MediaType.APPLICATION_NDJSON_VALUE})
+    @ResponseStatus(HttpStatus.OK)
+    public BatchResult importUsers(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                   InputStream body) throws IOException {
+        boolean csv = MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.parseMediaType("text/csv"));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        return userService.importUsers(reader, csv);
+    }
+
     @PutMapping
     @ResponseStatus(HttpStatus.OK)
     public User updateUser(@Valid @RequestBody User user) {
@@ -34,6 +61,25 @@ public class UserController {
         return userService.getUsers();
     }
 
+    @GetMapping(value = "export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportUsers() {
+        StreamingResponseBody body = out -> userService.exportUsers(user -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(user));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @GetMapping(params = "limit")
+    @ResponseStatus(HttpStatus.OK)
+    public Page<User> getUsers(@RequestParam(defaultValue = "0") Integer after, @RequestParam Integer limit) {
+        return userService.getUsers(after, limit);
+    }
+
     @GetMapping("{id}")
     public User getUser(@PathVariable("id") Integer userId) {
         return userService.getUser(userId);
@@ -55,6 +101,29 @@ public class UserController {
         return userService.getFriends(userId);
     }
 
+    @GetMapping("{id}/recommendations")
+    public List<User> getRecommendations(@PathVariable("id") Integer userId,
+                                         @RequestParam(defaultValue = "10") Integer count) {
+        return userService.getRecommendations(userId, count);
+    }
+
+    @GetMapping("{id}/similar")
+    public List<User> getSimilarUsers(@PathVariable("id") Integer userId,
+                                      @RequestParam(defaultValue = "10") Integer count) {
+        return userService.getSimilarUsers(userId, count);
+    }
+
+    @GetMapping("{id}/recommended-films")
+    public List<Film> getRecommendedFilms(@PathVariable("id") Integer userId,
+                                          @RequestParam(defaultValue = "10") Integer count) {
+        return filmService.getRecommendedFilms(userId, count);
+    }
+
+    @GetMapping("{id}/films/common/{otherId}")
+    public CommonFilms getCommonFilms(@PathVariable("id") Integer userId, @PathVariable Integer otherId) {
+        return filmService.getCommonFilms(userId, otherId);
+    }
+
     @GetMapping("{id}/friends/common/{friendId}")
     public List<User> getCommonFriends(@PathVariable("id") Integer userId, @PathVariable Integer friendId) {
         return userService.getCommonFriends(userId, friendId);
@@ -0,0 +1,75 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Итог пакетной операции: по записи на каждый элемент запроса в порядке их номеров.
+ * Ошибка одного элемента не отменяет остальные. Если задан maxItems, записей хранится не больше него,
+ * остальные элементы только учитываются в счетчиках.
+ */
+@Data
+@NoArgsConstructor
+public class BatchResult {
+    private int succeeded;
+    private int failed;
+    private int skipped;
+    private List<Item> items = new ArrayList<>();
+    @JsonIgnore
+    private int maxItems = Integer.MAX_VALUE;
+
+    public BatchResult(int maxItems) {
+        this.maxItems = maxItems;
+    }
+
+    public void success(int index, Integer id) {
+        succeeded++;
+        addItem(new Item(index, id, null));
+    }
+
+    public void success() {
+        succeeded++;
+    }
+
+    public void failure(int index, String error) {
+        failed++;
+        addItem(new Item(index, null, error));
+    }
+
+    /**
+     * Элемент пропущен без ошибки, например уже был сохранен раньше.
+     */
+    public void skip(int index, String reason) {
+        skipped++;
+        addItem(new Item(index, null, reason));
+    }
+
+    private void addItem(Item item) {
+        if (items.size() < maxItems) {
+            items.add(item);
+        }
+    }
+
+    public BatchResult sorted() {
+        items.sort(Comparator.comparingInt(Item::getIndex));
+        return this;
+    }
+
+    /**
+     * index - номер элемента в запросе, id - id созданной записи, error - причина отказа или пропуска.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+        private int index;
+        private Integer id;
+        private String error;
+    }
+}
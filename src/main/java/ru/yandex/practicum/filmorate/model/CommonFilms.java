@@ -0,0 +1,19 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Фильмы, лайкнутые обоими пользователями, и совместимость их вкусов:
+ * коэффициент Жаккара - доля общих фильмов среди всех, лайкнутых хотя бы одним из двоих.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CommonFilms {
+    private List<Film> films;
+    private double jaccard;
+}
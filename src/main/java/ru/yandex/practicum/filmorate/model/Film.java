@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
@@ -7,6 +8,9 @@ import org.springframework.web.server.ResponseStatusException;
 
 
 import javax.validation.constraints.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
 import java.util.*;
 
@@ -23,8 +27,9 @@ public class Film {
     private LocalDate releaseDate;
     @Positive(message = "Некорректная продолжительность фильма")
     private Integer duration;
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     @EqualsAndHashCode.Exclude
-    private final Set<User> likes = new HashSet<>();
+    private int likesCount;
     @EqualsAndHashCode.Exclude
     private final Set<Genre> genres = new TreeSet<>();
     @EqualsAndHashCode.Exclude
@@ -38,6 +43,26 @@ public class Film {
         values.put("release_date", releaseDate);
         values.put("duration", duration);
         values.put("mpa", mpa.getId());
+        values.put("fingerprint", fingerprint());
         return values;
     }
+
+    /**
+     * SHA-256 от полей, по которым фильмы считаются одинаковыми: названия, описания, даты релиза,
+     * продолжительности и рейтинга MPA. Хранится в уникальном индексе и заменяет поиск дублей по всей таблице.
+     */
+    public String fingerprint() {
+        String key = String.join("\u001f", String.valueOf(name), String.valueOf(description),
+                String.valueOf(releaseDate), String.valueOf(duration), String.valueOf(mpa.getId()));
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.util.Arrays;
+
+/**
+ * Отсортированное множество id на примитивном массиве int.
+ * Занимает 4 байта на элемент вместо объекта с полями и узла HashSet.
+ */
+public class IdSet {
+    private static final int[] EMPTY = new int[0];
+    private int[] ids = EMPTY;
+    private int size;
+
+    public boolean add(int id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(4, size + (size >> 1)));
+        }
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        ids[index] = id;
+        size++;
+        return true;
+    }
+
+    public boolean remove(int id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    public boolean contains(int id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof IdSet)) {
+            return false;
+        }
+        IdSet other = (IdSet) o;
+        return Arrays.equals(ids, 0, size, other.ids, 0, other.size);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < size; i++) {
+            result = 31 * result + ids[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
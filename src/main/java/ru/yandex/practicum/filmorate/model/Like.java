@@ -0,0 +1,16 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Лайк пользователя userId фильму filmId.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Like {
+    private Integer userId;
+    private Integer filmId;
+}
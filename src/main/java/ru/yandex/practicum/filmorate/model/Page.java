@@ -0,0 +1,25 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Страница списка при постраничной выдаче по курсору.
+ * nextCursor - значение для параметра after следующего запроса, null если страница последняя.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Page<T> {
+    private List<T> items;
+    private Integer nextCursor;
+
+    public static <T> Page<T> of(List<T> items, int limit, Function<T, Integer> cursor) {
+        Integer nextCursor = items.size() < limit ? null : cursor.apply(items.get(items.size() - 1));
+        return new Page<>(items, nextCursor);
+    }
+}
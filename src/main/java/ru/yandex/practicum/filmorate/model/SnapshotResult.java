@@ -0,0 +1,19 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Итог выгрузки или загрузки снимка базы: файл, его размер и кол-во строк по таблицам.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SnapshotResult {
+    private String path;
+    private long bytes;
+    private Map<String, Integer> rows;
+}
@@ -2,29 +2,46 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.CommonFilms;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Page;
+import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class FilmService {
     private final FilmStorage films;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 10000;
+    private static final int MAX_LIKES_BATCH_SIZE = 100000;
     private final LocalDate minDate = LocalDate.of(1895, 12, 28);
+    private final boolean popularFromIndex;
+    private final Validator validator;
 
     @Autowired
 
-    public FilmService(@Qualifier("FilmDbStorage") FilmStorage films) {
+    public FilmService(FilmStorage films,
+                       @Value("${filmorate.films.popular-from-index:true}") boolean popularFromIndex,
+                       Validator validator) {
         this.films = films;
+        this.popularFromIndex = popularFromIndex;
+        this.validator = validator;
     }
 
     public Film addFilm(Film film) throws ResponseStatusException {
@@ -37,6 +54,39 @@ public class FilmService {
         return film;
     }
 
+    /**
+     * Проверяет каждый фильм теми же правилами, что и addFilm, и передает корректные в хранилище одним списком.
+     * Некорректные фильмы попадают в результат с причиной отказа и не мешают остальным.
+     */
+    public BatchResult addFilms(List<Film> batch) throws ResponseStatusException {
+        if (batch.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "За один запрос можно добавить не больше " + MAX_BATCH_SIZE + " фильмов");
+        }
+        BatchResult result = new BatchResult();
+        List<Film> valid = new ArrayList<>(batch.size());
+        List<Integer> validIndexes = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            String error = validate(batch.get(i));
+            if (error != null) {
+                result.failure(i, error);
+            } else {
+                valid.add(batch.get(i));
+                validIndexes.add(i);
+            }
+        }
+        List<String> errors = films.addFilms(valid);
+        for (int i = 0; i < valid.size(); i++) {
+            if (errors.get(i) == null) {
+                result.success(validIndexes.get(i), valid.get(i).getId());
+            } else {
+                result.failure(validIndexes.get(i), errors.get(i));
+            }
+        }
+        log.info("Пакет фильмов: добавлено " + result.getSucceeded() + ", отклонено " + result.getFailed());
+        return result.sorted();
+    }
+
     public Film updateFilm(Film film) throws ResponseStatusException {
         if (film.getReleaseDate().isBefore(minDate)) {
             log.warn("Дата релиза не может быть раньше 28.12.1895\nТекущая дата релиза: " + film.getReleaseDate());
@@ -47,8 +97,14 @@ public class FilmService {
     }
 
     public List<Film> getFilms() {
-        log.info("Текущее кол-во фильмов: " + films.getFilmsList().size());
-        return films.getFilmsList();
+        List<Film> filmsList = films.getFilmsList();
+        log.info("Текущее кол-во фильмов: " + filmsList.size());
+        return filmsList;
+    }
+
+    public Page<Film> getFilms(Integer after, Integer limit) throws ResponseStatusException {
+        checkPage(after, limit);
+        return Page.of(films.getFilmsPage(after, limit), limit, Film::getId);
     }
 
     public void addLike(Integer userId, Integer filmId) throws ResponseStatusException {
@@ -60,6 +116,17 @@ public class FilmService {
         log.info("Пользователь c id = " + userId + " поставил лайк фильму c id = " + filmId);
     }
 
+    public BatchResult addLikes(List<Like> likes) throws ResponseStatusException {
+        if (likes.size() > MAX_LIKES_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "За один запрос можно добавить не больше " + MAX_LIKES_BATCH_SIZE + " лайков");
+        }
+        BatchResult result = films.addLikes(likes);
+        log.info("Пакет лайков: добавлено " + result.getSucceeded() + ", пропущено " + result.getSkipped()
+                + ", отклонено " + result.getFailed());
+        return result;
+    }
+
     public void deleteLike(Integer userId, Integer filmId) throws ResponseStatusException {
         if (userId <=0 || filmId <= 0) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND,
@@ -69,19 +136,58 @@ public class FilmService {
         log.info("Пользователь c id=" + userId + " удалил лайк с фильма id= " + filmId);
     }
 
-    public List<Film> getSortedFilms(Integer count) throws ResponseStatusException {
+    public Page<User> getLikes(Integer filmId, Integer after, Integer limit) throws ResponseStatusException {
+        if (filmId <= 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                    "id не может быть отрицательным либо равен 0");
+        }
+        checkPage(after, limit);
+        return Page.of(films.getLikes(filmId, after, limit), limit, User::getId);
+    }
+
+    public List<Film> getSortedFilms(Integer count, Integer genreId, Integer year) throws ResponseStatusException {
         if (count <= 0) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND,
                     "count не может быть отрицательным либо равен 0");
         }
-        Comparator<Film> sortFilm = (f1, f2) -> {
-            Integer filmLikes1 = f1.getLikes().size();
-            Integer filmLikes2 = f2.getLikes().size();
-            return -1 * filmLikes1.compareTo(filmLikes2);
+        return popularFromIndex ? films.getPopularFilms(count, genreId, year)
+                : films.getMostLikedFilms(count, genreId, year);
+    }
+
+    public List<Film> searchFilms(String query, Integer count) throws ResponseStatusException {
+        if (query == null || query.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Пустой поисковый запрос");
+        }
+        checkCount(count);
+        List<Film> found = films.searchFilms(query, count);
+        log.info("Поиск \"" + query + "\": найдено фильмов " + found.size());
+        return found;
+    }
 
-        };
-        return films.getFilmsList().stream().sorted(sortFilm).limit(count)
-                .collect(Collectors.toCollection(ArrayList::new));
+    public List<Film> getSimilarFilms(Integer filmId, Integer count) throws ResponseStatusException {
+        if (filmId <= 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                    "id не может быть отрицательным либо равен 0");
+        }
+        checkCount(count);
+        return films.getSimilarFilms(filmId, count);
+    }
+
+    public List<Film> getRecommendedFilms(Integer userId, Integer count) throws ResponseStatusException {
+        if (userId <= 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                    "id не может быть отрицательным либо равен 0");
+        }
+        checkCount(count);
+        return films.getRecommendedFilms(userId, count);
+    }
+
+    public CommonFilms getCommonFilms(Integer userId, Integer otherId) throws ResponseStatusException {
+        if (userId <= 0 || otherId <= 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                    "id и otherId не могут быть отрицательныи либо равены 0");
+        }
+        return films.getCommonFilms(userId, otherId);
     }
 
     public Film getFilm(Integer filmId) {
@@ -91,4 +197,39 @@ public class FilmService {
         }
         return films.getFilm(filmId);
     }
+
+    public void exportFilms(Consumer<Film> consumer) {
+        films.exportFilms(consumer);
+    }
+
+    private String validate(Film film) {
+        if (film == null) {
+            return "Пустой фильм";
+        }
+        Set<ConstraintViolation<Film>> violations = validator.validate(film);
+        if (!violations.isEmpty()) {
+            return violations.stream().map(ConstraintViolation::getMessage).sorted()
+                    .collect(Collectors.joining("; "));
+        }
+        if (film.getReleaseDate() != null && film.getReleaseDate().isBefore(minDate)) {
+            return "Дата релиза не может быть раньше 28.12.1895";
+        }
+        return null;
+    }
+
+    private void checkCount(Integer count) throws ResponseStatusException {
+        if (count <= 0 || count > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "count должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+    }
+
+    private void checkPage(Integer after, Integer limit) throws ResponseStatusException {
+        if (after < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "after не может быть отрицательным");
+        }
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+    }
 }
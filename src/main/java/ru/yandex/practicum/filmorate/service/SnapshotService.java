@@ -0,0 +1,22 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.SnapshotResult;
+import ru.yandex.practicum.filmorate.storage.DatabaseSnapshot;
+
+@Service
+@ConditionalOnProperty(name = "filmorate.storage.engine", havingValue = "db", matchIfMissing = true)
+public class SnapshotService {
+    private final DatabaseSnapshot snapshot;
+
+    @Autowired
+    public SnapshotService(DatabaseSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public SnapshotResult exportSnapshot() {
+        return snapshot.export();
+    }
+}
@@ -1,49 +1,115 @@
 package ru.yandex.practicum.filmorate.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class UserService {
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    private static final List<String> CSV_COLUMNS = List.of("email", "login", "name", "birthday");
     private final UserStorage users;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
 
     @Autowired
-    public UserService(@Qualifier("UserDbStorage") UserStorage users) {
+    public UserService(UserStorage users, Validator validator, ObjectMapper objectMapper,
+                       @Value("${filmorate.batch.size:1000}") int batchSize) {
         this.users = users;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
     }
 
     public User addUser(User user) throws ResponseStatusException {
-        if (user.getName() == null || user.getName().isBlank()) {
-            user.setName(user.getLogin());
-            log.debug("Имя пользователя пустое. Был использован логин");
-        }
+        defaultName(user);
         users.add(user);
         log.info("Пользователь {} сохранен", user);
         return user;
     }
 
-    public User updateUser(User user) throws ResponseStatusException {
-        if (user.getName() == null || user.getName().isBlank()) {
-            user.setName(user.getLogin());
-            log.debug("Имя пользователя пустое. Был использован логин");
+    /**
+     * Импортирует пользователей из CSV с заголовком (email,login,name,birthday в любом порядке, name можно опустить)
+     * или из NDJSON. Файл читается построчно, в память попадает только текущая пачка из batchSize пользователей.
+     * Строки проверяются теми же правилами, что и POST /users. В ответе счетчики и ошибки по номерам записей,
+     * но не больше MAX_REPORTED_ERRORS ошибок.
+     */
+    public BatchResult importUsers(BufferedReader reader, boolean csv) throws IOException, ResponseStatusException {
+        Function<String, User> parser = csv ? csvParser(reader.readLine()) : this::parseJson;
+        BatchResult result = new BatchResult(MAX_REPORTED_ERRORS);
+        List<User> chunk = new ArrayList<>(batchSize);
+        List<Integer> chunkIndexes = new ArrayList<>(batchSize);
+        int index = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            int current = index++;
+            User user;
+            try {
+                user = parser.apply(line);
+            } catch (RuntimeException e) {
+                result.failure(current, "Не удалось разобрать запись: " + e.getMessage());
+                continue;
+            }
+            String error = validate(user);
+            if (error != null) {
+                result.failure(current, error);
+                continue;
+            }
+            defaultName(user);
+            chunk.add(user);
+            chunkIndexes.add(current);
+            if (chunk.size() == batchSize) {
+                flush(chunk, chunkIndexes, result);
+            }
         }
+        flush(chunk, chunkIndexes, result);
+        log.info("Импорт пользователей: добавлено " + result.getSucceeded() + ", отклонено " + result.getFailed());
+        return result.sorted();
+    }
+
+    public User updateUser(User user) throws ResponseStatusException {
+        defaultName(user);
         users.update(user);
         log.info("Пользователь {} сохранен", user);
         return user;
     }
 
     public List<User> getUsers() {
-        log.info("Текущее кол-во пользователей: " + users.getUsersList().size());
-        return users.getUsersList();
+        List<User> usersList = users.getUsersList();
+        log.info("Текущее кол-во пользователей: " + usersList.size());
+        return usersList;
+    }
+
+    public Page<User> getUsers(Integer after, Integer limit) throws ResponseStatusException {
+        checkPage(after, limit);
+        return Page.of(users.getUsersPage(after, limit), limit, User::getId);
     }
 
     public void addFriend(Integer userId, Integer friendId) throws ResponseStatusException {
@@ -89,6 +155,26 @@ public class UserService {
         return users.getFriends(friendId);
     }
 
+    public List<User> getRecommendations(Integer userId, Integer count) throws ResponseStatusException {
+        if (userId <= 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "id не может быть отрицательным либо равен 0");
+        }
+        if (count <= 0 || count > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "count должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        return users.getRecommendations(userId, count);
+    }
+
+    public List<User> getSimilarUsers(Integer userId, Integer count) throws ResponseStatusException {
+        if (userId <= 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "id не может быть отрицательным либо равен 0");
+        }
+        if (count <= 0 || count > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "count должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        return users.getSimilarUsers(userId, count);
+    }
+
     public User getUser(Integer userId) {
         if (userId <= 0) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND,
@@ -96,4 +182,124 @@ public class UserService {
         }
         return users.getUser(userId);
     }
+
+    public void exportUsers(Consumer<User> consumer) {
+        users.exportUsers(consumer);
+    }
+
+    private void defaultName(User user) {
+        if (user.getName() == null || user.getName().isBlank()) {
+            user.setName(user.getLogin());
+            log.debug("Имя пользователя пустое. Был использован логин");
+        }
+    }
+
+    private void flush(List<User> chunk, List<Integer> chunkIndexes, BatchResult result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<String> errors = users.addUsers(chunk);
+        for (int i = 0; i < chunk.size(); i++) {
+            if (errors.get(i) == null) {
+                result.success();
+            } else {
+                result.failure(chunkIndexes.get(i), errors.get(i));
+            }
+        }
+        chunk.clear();
+        chunkIndexes.clear();
+    }
+
+    private String validate(User user) {
+        Set<ConstraintViolation<User>> violations = validator.validate(user);
+        if (!violations.isEmpty()) {
+            return violations.stream().map(ConstraintViolation::getMessage).sorted()
+                    .collect(Collectors.joining("; "));
+        }
+        if (user.getEmail() == null || user.getEmail().isBlank()) {
+            return "email не может быть пустым";
+        }
+        if (user.getBirthday() == null) {
+            return "Дата рождения не может быть пустой";
+        }
+        return null;
+    }
+
+    private User parseJson(String line) {
+        try {
+            return objectMapper.readValue(line, User.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e.getOriginalMessage());
+        }
+    }
+
+    /**
+     * Разбирает строки CSV по колонкам из заголовка. Поля можно брать в двойные кавычки,
+     * кавычка внутри поля удваивается. Перевод строки внутри поля не поддерживается.
+     */
+    private Function<String, User> csvParser(String header) throws ResponseStatusException {
+        if (header == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "В CSV нет заголовка");
+        }
+        List<String> columns = splitCsv(header.replace("\uFEFF", ""));
+        int[] positions = new int[CSV_COLUMNS.size()];
+        for (int i = 0; i < CSV_COLUMNS.size(); i++) {
+            positions[i] = columns.indexOf(CSV_COLUMNS.get(i));
+            if (positions[i] < 0 && !CSV_COLUMNS.get(i).equals("name")) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "В заголовке CSV нет колонки " + CSV_COLUMNS.get(i));
+            }
+        }
+        return line -> {
+            List<String> values = splitCsv(line);
+            if (values.size() != columns.size()) {
+                throw new IllegalArgumentException("ожидалось полей: " + columns.size() + ", получено: " + values.size());
+            }
+            String birthday = values.get(positions[3]);
+            return User.builder()
+                    .email(values.get(positions[0]))
+                    .login(values.get(positions[1]))
+                    .name(positions[2] < 0 ? null : values.get(positions[2]))
+                    .birthday(birthday.isEmpty() ? null : LocalDate.parse(birthday))
+                    .build();
+        };
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString().trim());
+        return values;
+    }
+
+    private void checkPage(Integer after, Integer limit) throws ResponseStatusException {
+        if (after < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "after не может быть отрицательным");
+        }
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+    }
 }
@@ -0,0 +1,268 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.Arrays;
+
+/**
+ * Сжатое множество неотрицательных int в духе Roaring: значения делятся по старшим 16 битам на блоки,
+ * блок до ARRAY_MAX значений хранится отсортированным массивом char, больше - битовой картой
+ * из 1024 long. Пересечение двух битовых карт - AND по 64 бита за раз, массива с картой - проверка
+ * битов, двух массивов - слияние. Не потокобезопасно, синхронизация на стороне владельца.
+ */
+public class CompressedBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1 << 10;
+    private int[] keys = new int[0];
+    private Container[] containers = new Container[0];
+    private int cardinality;
+
+    public boolean add(int value) {
+        int high = value >>> 16;
+        int index = Arrays.binarySearch(keys, high);
+        if (index < 0) {
+            index = -index - 1;
+            keys = insert(keys, index, high);
+            Container[] newContainers = new Container[containers.length + 1];
+            System.arraycopy(containers, 0, newContainers, 0, index);
+            System.arraycopy(containers, index, newContainers, index + 1, containers.length - index);
+            newContainers[index] = new ArrayContainer();
+            containers = newContainers;
+        }
+        int before = containers[index].cardinality();
+        containers[index] = containers[index].add((char) value);
+        boolean added = containers[index].cardinality() > before;
+        if (added) {
+            cardinality++;
+        }
+        return added;
+    }
+
+    public boolean remove(int value) {
+        int index = Arrays.binarySearch(keys, value >>> 16);
+        if (index < 0) {
+            return false;
+        }
+        int before = containers[index].cardinality();
+        containers[index] = containers[index].remove((char) value);
+        if (containers[index].cardinality() == before) {
+            return false;
+        }
+        cardinality--;
+        if (containers[index].cardinality() == 0) {
+            int[] newKeys = new int[keys.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+            Container[] newContainers = new Container[containers.length - 1];
+            System.arraycopy(containers, 0, newContainers, 0, index);
+            System.arraycopy(containers, index + 1, newContainers, index, containers.length - index - 1);
+            keys = newKeys;
+            containers = newContainers;
+        }
+        return true;
+    }
+
+    public boolean contains(int value) {
+        int index = Arrays.binarySearch(keys, value >>> 16);
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Значения, которые есть в обоих множествах, по возрастанию.
+     */
+    public int[] and(CompressedBitmap other) {
+        int[] result = new int[Math.min(cardinality, other.cardinality)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                size = containers[i].and(other.containers[j], keys[i] << 16, result, size);
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static int[] insert(int[] array, int index, int value) {
+        int[] result = new int[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    private interface Container {
+        Container add(char value);
+
+        Container remove(char value);
+
+        boolean contains(char value);
+
+        int cardinality();
+
+        /**
+         * Дописывает в result с позиции size значения пересечения с other, к которым прибавлен base.
+         * Возвращает новый size.
+         */
+        int and(Container other, int base, int[] result, int size);
+    }
+
+    private static class ArrayContainer implements Container {
+        private char[] values = new char[4];
+        private int size;
+
+        @Override
+        public Container add(char value) {
+            int position = Arrays.binarySearch(values, 0, size, value);
+            if (position >= 0) {
+                return this;
+            }
+            if (size == ARRAY_MAX) {
+                BitmapContainer bitmap = new BitmapContainer();
+                for (int i = 0; i < size; i++) {
+                    bitmap.add(values[i]);
+                }
+                return bitmap.add(value);
+            }
+            position = -position - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_MAX));
+            }
+            System.arraycopy(values, position, values, position + 1, size - position);
+            values[position] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        public Container remove(char value) {
+            int position = Arrays.binarySearch(values, 0, size, value);
+            if (position >= 0) {
+                System.arraycopy(values, position + 1, values, position, size - position - 1);
+                size--;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return size;
+        }
+
+        @Override
+        public int and(Container other, int base, int[] result, int resultSize) {
+            if (other instanceof BitmapContainer) {
+                for (int i = 0; i < size; i++) {
+                    if (other.contains(values[i])) {
+                        result[resultSize++] = base | values[i];
+                    }
+                }
+                return resultSize;
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            int i = 0;
+            int j = 0;
+            while (i < size && j < array.size) {
+                if (values[i] < array.values[j]) {
+                    i++;
+                } else if (values[i] > array.values[j]) {
+                    j++;
+                } else {
+                    result[resultSize++] = base | values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return resultSize;
+        }
+    }
+
+    private static class BitmapContainer implements Container {
+        private final long[] words = new long[WORDS];
+        private int cardinality;
+
+        @Override
+        public Container add(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        public Container remove(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                return this;
+            }
+            words[value >>> 6] &= ~bit;
+            cardinality--;
+            if (cardinality > ARRAY_MAX / 2) {
+                return this;
+            }
+            // вдвое ниже порога, чтобы блок на границе не переключался туда-обратно на каждом изменении
+            ArrayContainer array = new ArrayContainer();
+            array.values = new char[cardinality];
+            forEach((word, bits) -> {
+                while (bits != 0) {
+                    array.values[array.size++] = (char) (word * 64 + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            });
+            return array;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return (words[value >>> 6] & 1L << value) != 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public int and(Container other, int base, int[] result, int resultSize) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this, base, result, resultSize);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            for (int word = 0; word < WORDS; word++) {
+                long bits = words[word] & otherWords[word];
+                while (bits != 0) {
+                    result[resultSize++] = base | word * 64 + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+            }
+            return resultSize;
+        }
+
+        private void forEach(WordConsumer consumer) {
+            for (int word = 0; word < WORDS; word++) {
+                if (words[word] != 0) {
+                    consumer.accept(word, words[word]);
+                }
+            }
+        }
+    }
+
+    private interface WordConsumer {
+        void accept(int word, long bits);
+    }
+}
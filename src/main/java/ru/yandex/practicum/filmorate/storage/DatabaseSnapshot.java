@@ -0,0 +1,529 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.SnapshotResult;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Снимок всей базы в двоичном файле по столбцам: mpa, genre, film, person, genre_films, likes, friend_request.
+ * Формат: магическое число, версия, кол-во таблиц; по каждой таблице - имя, кол-во строк и столбцов,
+ * затем столбцы целиком друг за другом: имя, тип и значения. Целые и даты (день от 1970-01-01) - подряд
+ * по 4 байта, null - Integer.MIN_VALUE; строки - сначала длины в байтах UTF-8 (null - -1), затем сами байты
+ * одним куском. В конце - CRC32 всего предыдущего содержимого.
+ * Выгрузка идет в одной транзакции REPEATABLE_READ, поэтому ссылки в снимке согласованы, и пишется
+ * во временный файл, который заменяет прежний снимок только целиком.
+ * Загрузка в пустую базу начинается со сверки CRC32 и идет пачками по batch.size строк в одной транзакции:
+ * снимок, оборванный или испорченный в любом месте, не оставляет в базе половину данных. Справочники mpa и genre сливаются по id с уже заполненными data.sql.
+ * После загрузки счетчики id продолжаются с максимального загруженного, журнал событий очищается
+ * и хранилища перестраивают индексы в памяти.
+ * Снимок работает только с хранилищами в базе: при filmorate.storage.engine=memory бина нет.
+ */
+@Component
+@ConditionalOnProperty(name = "filmorate.storage.engine", havingValue = "db", matchIfMissing = true)
+@Slf4j
+public class DatabaseSnapshot {
+    private static final int MAGIC = 0x464E5350;
+    private static final int VERSION = 1;
+    private static final int NULL = Integer.MIN_VALUE;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final List<Table> TABLES = List.of(
+            new Table("mpa", "mpa_id", true, "mpa_id", Type.INT, "mpa_name", Type.STRING),
+            new Table("genre", "genre_id", true, "genre_id", Type.INT, "genre_name", Type.STRING),
+            new Table("film", "film_id", false, "film_id", Type.INT, "name", Type.STRING,
+                    "description", Type.STRING, "release_date", Type.DATE, "duration", Type.INT, "mpa", Type.INT,
+                    "like_count", Type.INT, "fingerprint", Type.STRING),
+            new Table("person", "person_id", false, "person_id", Type.INT, "email", Type.STRING,
+                    "login", Type.STRING, "name", Type.STRING, "birthday", Type.DATE),
+            new Table("genre_films", null, false, "film_id", Type.INT, "genre_id", Type.INT),
+            new Table("likes", null, false, "person_id", Type.INT, "film_id", Type.INT),
+            new Table("friend_request", null, false, "sender_id", Type.INT, "addressee_id", Type.INT));
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate exportTransaction;
+    private final TransactionTemplate loadTransaction;
+    private final List<Reloadable> storages;
+    private final EventJournal journal;
+    private final Path path;
+    private final boolean loadOnStartup;
+    private final int batchSize;
+    private final int exportFetchSize;
+
+    @Autowired
+    public DatabaseSnapshot(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                            List<Reloadable> storages, EventJournal journal,
+                            @Value("${filmorate.snapshot.path:./db/snapshot.bin}") String path,
+                            @Value("${filmorate.snapshot.load-on-startup:false}") boolean loadOnStartup,
+                            @Value("${filmorate.batch.size:1000}") int batchSize,
+                            @Value("${filmorate.export.fetch-size:500}") int exportFetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.exportTransaction = new TransactionTemplate(transactionManager);
+        this.exportTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.exportTransaction.setReadOnly(true);
+        this.loadTransaction = new TransactionTemplate(transactionManager);
+        this.storages = storages;
+        this.journal = journal;
+        this.path = Paths.get(path);
+        this.loadOnStartup = loadOnStartup;
+        this.batchSize = batchSize;
+        this.exportFetchSize = exportFetchSize;
+    }
+
+    @PostConstruct
+    public void loadOnStartup() {
+        if (!loadOnStartup) {
+            return;
+        }
+        if (!isEmpty()) {
+            log.warn("Снимок " + path + " не загружен: в базе уже есть фильмы или пользователи");
+            return;
+        }
+        load();
+    }
+
+    /**
+     * Выгружает базу в файл снимка и возвращает кол-во строк по таблицам.
+     */
+    public synchronized SnapshotResult export() {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Map<String, Integer> rows = new LinkedHashMap<>();
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            try (Output output = new Output(FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                output.putInt(MAGIC);
+                output.putInt(VERSION);
+                output.putInt(TABLES.size());
+                exportTransaction.executeWithoutResult(status -> TABLES.forEach(table -> {
+                    Column[] columns = query(table);
+                    rows.put(table.name, columns[0].size);
+                    write(output, table, columns);
+                }));
+                output.finish();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long bytes = Files.size(path);
+            log.info("Снимок базы записан в " + path + ", байт: " + bytes + ", строк: " + rows);
+            return new SnapshotResult(path.toString(), bytes, rows);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать снимок базы " + path, e);
+        }
+    }
+
+    /**
+     * Загружает файл снимка в пустую базу и перестраивает индексы хранилищ.
+     */
+    public synchronized SnapshotResult load() {
+        if (!isEmpty()) {
+            throw new IllegalStateException("Снимок загружается только в пустую базу");
+        }
+        Map<String, Integer> rows = new LinkedHashMap<>();
+        try (Input input = new Input(FileChannel.open(path, StandardOpenOption.READ))) {
+            verify(input.channel);
+            loadTransaction.executeWithoutResult(status -> {
+                if (input.getInt() != MAGIC || input.getInt() != VERSION) {
+                    throw new IllegalStateException("Файл " + path + " не является снимком базы этой версии");
+                }
+                int tables = input.getInt();
+                for (int i = 0; i < tables; i++) {
+                    Table table = TABLES.get(i);
+                    Column[] columns = read(input, table);
+                    insert(table, columns);
+                    rows.put(table.name, columns[0].size);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать снимок базы " + path, e);
+        }
+        // DDL в H2 фиксирует транзакцию, поэтому счетчики id сдвигаются после нее
+        TABLES.stream().filter(table -> table.identity != null).forEach(this::restartIdentity);
+        log.info("Снимок базы загружен из " + path + ", строк: " + rows);
+        // журнал отражает прежнее содержимое таблиц, индексы нужно строить по загруженному
+        journal.clear();
+        storages.forEach(Reloadable::reload);
+        return new SnapshotResult(path.toString(), path.toFile().length(), rows);
+    }
+
+    private boolean isEmpty() {
+        return jdbcTemplate.queryForObject("SELECT NOT EXISTS (SELECT 1 FROM film) AND NOT EXISTS " +
+                "(SELECT 1 FROM person)", Boolean.class);
+    }
+
+    /**
+     * Сверяет CRC32 всего файла с записанной в конце до загрузки первой строки.
+     */
+    private void verify(FileChannel channel) throws IOException {
+        long dataSize = channel.size() - Integer.BYTES;
+        if (dataSize < 0) {
+            throw new IllegalStateException("Снимок " + path + " поврежден: файл обрывается");
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        for (long position = 0; position < dataSize; ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, dataSize - position));
+            int read = channel.read(buffer, position);
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+        }
+        buffer.clear();
+        buffer.limit(Integer.BYTES);
+        while (buffer.hasRemaining()) {
+            channel.read(buffer, dataSize + buffer.position());
+        }
+        if (buffer.getInt(0) != (int) crc.getValue()) {
+            throw new IllegalStateException("Снимок " + path + " поврежден: не сходится контрольная сумма");
+        }
+    }
+
+    private Column[] query(Table table) {
+        Column[] columns = table.newColumns();
+        String sqlQuery = "SELECT " + String.join(", ", table.columns) + " FROM " + table.name +
+                " ORDER BY " + String.join(", ", table.columns);
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sqlQuery);
+            statement.setFetchSize(exportFetchSize);
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].add(rs, i + 1);
+            }
+        });
+        return columns;
+    }
+
+    private void insert(Table table, Column[] columns) {
+        String values = String.join(", ", Collections.nCopies(table.columns.length, "?"));
+        String sqlQuery = table.reference
+                ? "MERGE INTO " + table.name + " (" + String.join(", ", table.columns) + ") KEY (" +
+                table.identity + ") VALUES (" + values + ")"
+                : "INSERT INTO " + table.name + " (" + String.join(", ", table.columns) + ") VALUES (" + values + ")";
+        int size = columns[0].size;
+        for (int from = 0; from < size; from += batchSize) {
+            int offset = from;
+            jdbcTemplate.batchUpdate(sqlQuery, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    for (int column = 0; column < columns.length; column++) {
+                        columns[column].set(ps, column + 1, offset + i);
+                    }
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return Math.min(batchSize, size - offset);
+                }
+            });
+        }
+    }
+
+    private void restartIdentity(Table table) {
+        Integer max = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(" + table.identity + "), 0) FROM " +
+                table.name, Integer.class);
+        jdbcTemplate.execute("ALTER TABLE " + table.name + " ALTER COLUMN " + table.identity +
+                " RESTART WITH " + (max + 1));
+    }
+
+    private static void write(Output output, Table table, Column[] columns) {
+        output.putString(table.name);
+        output.putInt(columns[0].size);
+        output.putInt(columns.length);
+        for (Column column : columns) {
+            output.putString(column.name);
+            output.putInt(column.type.ordinal());
+            if (column.type == Type.STRING) {
+                byte[][] bytes = new byte[column.size][];
+                for (int i = 0; i < column.size; i++) {
+                    String value = column.strings.get(i);
+                    bytes[i] = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+                    output.putInt(value == null ? -1 : bytes[i].length);
+                }
+                for (byte[] value : bytes) {
+                    if (value != null) {
+                        output.putBytes(value);
+                    }
+                }
+            } else {
+                for (int i = 0; i < column.size; i++) {
+                    output.putInt(column.ints[i]);
+                }
+            }
+        }
+    }
+
+    private Column[] read(Input input, Table table) {
+        String name = input.getString();
+        int size = input.getInt();
+        int count = input.getInt();
+        if (!table.name.equals(name) || count != table.columns.length) {
+            throw new IllegalStateException("Снимок " + path + " поврежден: ожидалась таблица " + table.name);
+        }
+        Column[] columns = table.newColumns();
+        for (Column column : columns) {
+            if (!column.name.equals(input.getString()) || column.type.ordinal() != input.getInt()) {
+                throw new IllegalStateException("Снимок " + path + " поврежден: столбцы таблицы " + table.name +
+                        " не совпадают");
+            }
+            if (column.type == Type.STRING) {
+                int[] lengths = new int[size];
+                for (int i = 0; i < size; i++) {
+                    lengths[i] = input.getInt();
+                }
+                column.strings = new ArrayList<>(size);
+                for (int length : lengths) {
+                    column.strings.add(length < 0 ? null
+                            : new String(input.getBytes(length), StandardCharsets.UTF_8));
+                }
+            } else {
+                column.ints = new int[size];
+                for (int i = 0; i < size; i++) {
+                    column.ints[i] = input.getInt();
+                }
+            }
+            column.size = size;
+        }
+        return columns;
+    }
+
+    private enum Type {
+        INT, DATE, STRING
+    }
+
+    /**
+     * identity - столбец id со счетчиком или null, reference - справочник, заполняемый также data.sql.
+     */
+    private static class Table {
+        private final String name;
+        private final String identity;
+        private final boolean reference;
+        private final String[] columns;
+        private final Type[] types;
+
+        private Table(String name, String identity, boolean reference, Object... columns) {
+            this.name = name;
+            this.identity = identity;
+            this.reference = reference;
+            this.columns = new String[columns.length / 2];
+            this.types = new Type[columns.length / 2];
+            for (int i = 0; i < this.columns.length; i++) {
+                this.columns[i] = (String) columns[2 * i];
+                this.types[i] = (Type) columns[2 * i + 1];
+            }
+        }
+
+        private Column[] newColumns() {
+            Column[] result = new Column[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                result[i] = new Column(columns[i], types[i]);
+            }
+            return result;
+        }
+    }
+
+    private static class Column {
+        private final String name;
+        private final Type type;
+        private int[] ints = new int[1024];
+        private List<String> strings = new ArrayList<>();
+        private int size;
+
+        private Column(String name, Type type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        private void add(ResultSet rs, int index) throws SQLException {
+            if (type == Type.STRING) {
+                strings.add(rs.getString(index));
+                size++;
+                return;
+            }
+            if (size == ints.length) {
+                ints = Arrays.copyOf(ints, size * 2);
+            }
+            if (type == Type.DATE) {
+                Date date = rs.getDate(index);
+                ints[size++] = date == null ? NULL : (int) date.toLocalDate().toEpochDay();
+            } else {
+                int value = rs.getInt(index);
+                ints[size++] = rs.wasNull() ? NULL : value;
+            }
+        }
+
+        private void set(PreparedStatement ps, int index, int row) throws SQLException {
+            if (type == Type.STRING) {
+                ps.setString(index, strings.get(row));
+            } else if (ints[row] == NULL) {
+                ps.setNull(index, type == Type.DATE ? Types.DATE : Types.INTEGER);
+            } else if (type == Type.DATE) {
+                ps.setDate(index, Date.valueOf(LocalDate.ofEpochDay(ints[row])));
+            } else {
+                ps.setInt(index, ints[row]);
+            }
+        }
+    }
+
+    /**
+     * Запись в канал через прямой буфер с подсчетом CRC32 всего записанного.
+     */
+    private static class Output implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void putInt(int value) {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        private void putBytes(byte[] bytes) {
+            for (int from = 0; from < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - from);
+                buffer.put(bytes, from, length);
+                from += length;
+            }
+        }
+
+        private void putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        /**
+         * Дописывает CRC32 и сбрасывает содержимое на диск.
+         */
+        private void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            channel.force(true);
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Чтение из канала через прямой буфер.
+     */
+    private static class Input implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        private Input(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        private int getInt() {
+            ensure(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        private byte[] getBytes(int length) {
+            byte[] bytes = new byte[length];
+            for (int from = 0; from < length; ) {
+                ensure(1);
+                int chunk = Math.min(buffer.remaining(), length - from);
+                buffer.get(bytes, from, chunk);
+                from += chunk;
+            }
+            return bytes;
+        }
+
+        private String getString() {
+            return new String(getBytes(getInt()), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Дочитывает из канала, чтобы в буфере было не меньше bytes байт.
+         */
+        private void ensure(int bytes) {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            try {
+                while (buffer.position() < bytes) {
+                    if (channel.read(buffer) < 0) {
+                        throw new IllegalStateException("Снимок поврежден: файл обрывается");
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
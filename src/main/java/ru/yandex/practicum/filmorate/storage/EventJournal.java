@@ -0,0 +1,259 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал событий лайков и дружбы: файл только на дописывание, отображенный в память сегментами
+ * по segmentRecords записей. Запись фиксированного размера RECORD_SIZE: номер (long, с 1 подряд),
+ * тип (int), два id (int) и CRC32 этих полей вместе с эпохой журнала. Первая ячейка файла - заголовок
+ * с магическим числом, размером записи, эпохой и поколением схемы базы, для которого записан журнал.
+ * При открытии записи читаются с начала, пока номер идет подряд и CRC сходится: недописанный хвост
+ * после падения отбрасывается и перезаписывается, номер в ячейке за последней записью всегда обнулен.
+ * clear() увеличивает эпоху, после чего старые записи перестают проходить проверку CRC и файл не нужно обнулять.
+ * Записи попадают в страничный кэш ОС сразу, на диск - при force() и закрытии, поэтому переживают
+ * падение процесса, но не узла.
+ * Хранилища пишут в журнал каждое изменение лайков и дружбы и при старте восстанавливают индексы
+ * в памяти проигрыванием журнала вместо чтения таблиц. Журнал без отметки LIKES_SEEDED (FRIENDS_SEEDED)
+ * не покрывает соответствующие таблицы: хранилище читает их как раньше и дописывает в журнал их
+ * содержимое с отметкой.
+ * schema.sql при каждом запуске пересоздает таблицы и записывает в schema_generation новое случайное поколение.
+ * Хранилища передают его в bind() перед проигрыванием: журнал другого поколения описывает удаленные строки
+ * и id, которые будут выданы заново, поэтому он очищается и заполняется из таблиц.
+ */
+@Component
+@Slf4j
+public class EventJournal {
+    public static final int LIKE_ADD = 1;
+    public static final int LIKE_REMOVE = 2;
+    public static final int FRIEND_ADD = 3;
+    public static final int FRIEND_REMOVE = 4;
+    public static final int LIKES_SEEDED = 5;
+    public static final int FRIENDS_SEEDED = 6;
+    static final int RECORD_SIZE = 24;
+    private static final int MAGIC = 0x464A524E;
+    private final boolean enabled;
+    private final Path path;
+    private final long segmentSize;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    private final byte[] fields = new byte[24];
+    private FileChannel channel;
+    private int epoch;
+    private long generation;
+    private long count;
+
+    @Autowired
+    public EventJournal(@Value("${filmorate.journal.enabled:false}") boolean enabled,
+                        @Value("${filmorate.journal.path:./db/journal.bin}") String path,
+                        @Value("${filmorate.journal.segment-records:1048576}") int segmentRecords) {
+        this.enabled = enabled;
+        this.path = Paths.get(path);
+        this.segmentSize = (long) RECORD_SIZE * segmentRecords;
+        if (enabled) {
+            open();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized long size() {
+        return count;
+    }
+
+    /**
+     * Привязывает журнал к поколению схемы базы. Если журнал записан для другого поколения, его записи
+     * отбрасываются, как при clear().
+     */
+    public synchronized void bind(long schemaGeneration) {
+        if (!enabled || generation == schemaGeneration) {
+            return;
+        }
+        log.info("Журнал событий записан для другого поколения схемы базы, записи отброшены: " + count);
+        generation = schemaGeneration;
+        clear();
+    }
+
+    /**
+     * Дописывает событие и возвращает его номер. Если журнал выключен, ничего не делает и возвращает 0.
+     */
+    public synchronized long append(int type, int first, int second) {
+        if (!enabled) {
+            return 0;
+        }
+        write(type, first, second);
+        return count;
+    }
+
+    /**
+     * Дописывает пары (first[i], second[i]) с типом type и в конце отметку marker.
+     */
+    public synchronized void seed(int type, int[] first, int[] second, int size, int marker) {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            write(type, first[i], second[i]);
+        }
+        write(marker, 0, 0);
+        log.info("В журнал событий записано начальное состояние, записей: " + size);
+    }
+
+    /**
+     * Отдает все записи по порядку номеров.
+     */
+    public synchronized void replay(Listener listener) {
+        for (long sequence = 1; sequence <= count; sequence++) {
+            MappedByteBuffer segment = segment(sequence);
+            int offset = offset(sequence);
+            listener.accept(sequence, segment.getInt(offset + 8), segment.getInt(offset + 12),
+                    segment.getInt(offset + 16));
+        }
+    }
+
+    /**
+     * Делает все записи недействительными. Следующий старт хранилищ заново заполнит журнал из таблиц.
+     */
+    public synchronized void clear() {
+        if (!enabled) {
+            return;
+        }
+        epoch++;
+        writeHeader();
+        count = 0;
+    }
+
+    public synchronized void force() {
+        segments.forEach(MappedByteBuffer::force);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        force();
+        segments.clear();
+        channel.close();
+        channel = null;
+        log.info("Журнал событий закрыт, записей: " + count);
+    }
+
+    private void open() {
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long segmentsInFile = Math.max(1, (channel.size() + segmentSize - 1) / segmentSize);
+            for (int i = 0; i < segmentsInFile; i++) {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, i * segmentSize, segmentSize));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть журнал событий " + path, e);
+        }
+        MappedByteBuffer header = segments.get(0);
+        if (header.getInt(0) != MAGIC) {
+            epoch = 1;
+            writeHeader();
+        } else if (header.getInt(4) != RECORD_SIZE) {
+            throw new IllegalStateException("Журнал событий " + path + " записан с другим размером записи");
+        } else {
+            epoch = header.getInt(8);
+            generation = header.getLong(12);
+        }
+        while (valid(count + 1)) {
+            count++;
+        }
+        log.info("Журнал событий " + path + " открыт, записей: " + count);
+    }
+
+    private void writeHeader() {
+        MappedByteBuffer header = segments.get(0);
+        header.putInt(0, MAGIC);
+        header.putInt(4, RECORD_SIZE);
+        header.putInt(8, epoch);
+        header.putLong(12, generation);
+    }
+
+    private boolean valid(long sequence) {
+        if (sequence / recordsPerSegment() >= segments.size()) {
+            return false;
+        }
+        MappedByteBuffer segment = segment(sequence);
+        int offset = offset(sequence);
+        return segment.getLong(offset) == sequence && segment.getInt(offset + 20)
+                == checksum(sequence, segment.getInt(offset + 8), segment.getInt(offset + 12),
+                segment.getInt(offset + 16));
+    }
+
+    private void write(int type, int first, int second) {
+        long sequence = count + 1;
+        if (sequence / recordsPerSegment() >= segments.size()) {
+            try {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * segmentSize,
+                        segmentSize));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось расширить журнал событий " + path, e);
+            }
+        }
+        MappedByteBuffer segment = segment(sequence);
+        int offset = offset(sequence);
+        segment.putLong(offset, sequence);
+        segment.putInt(offset + 8, type);
+        segment.putInt(offset + 12, first);
+        segment.putInt(offset + 16, second);
+        segment.putInt(offset + 20, checksum(sequence, type, first, second));
+        count = sequence;
+        // после отброшенного при открытии хвоста за новой записью могут лежать старые записи той же эпохи
+        // с подходящими номерами: обнуленный номер в следующей ячейке не даст их прочитать
+        if ((sequence + 1) / recordsPerSegment() < segments.size()) {
+            segment(sequence + 1).putLong(offset(sequence + 1), 0);
+        }
+    }
+
+    private int checksum(long sequence, int type, int first, int second) {
+        ByteBuffer.wrap(fields).putLong(sequence).putInt(type).putInt(first).putInt(second).putInt(epoch);
+        crc.reset();
+        crc.update(fields);
+        return (int) crc.getValue();
+    }
+
+    private long recordsPerSegment() {
+        return segmentSize / RECORD_SIZE;
+    }
+
+    /**
+     * Ячейка 0 - заголовок, запись с номером n лежит в ячейке n.
+     */
+    private MappedByteBuffer segment(long sequence) {
+        return segments.get((int) (sequence / recordsPerSegment()));
+    }
+
+    private int offset(long sequence) {
+        return (int) (sequence % recordsPerSegment() * RECORD_SIZE);
+    }
+
+    public interface Listener {
+        void accept(long sequence, int type, int first, int second);
+    }
+}
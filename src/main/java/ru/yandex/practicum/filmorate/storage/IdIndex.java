@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Множество существующих id сущностей в виде битовой карты: один бит на id.
+ * Позволяет проверить существование пользователя или фильма без запроса к базе.
+ */
+public class IdIndex {
+    private final BitSet ids = new BitSet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ids.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void add(int id) {
+        if (id < 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            ids.set(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int id) {
+        if (id < 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            ids.clear(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(int id) {
+        if (id < 0) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return ids.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Наименьший id больше after или -1, если таких нет. Позволяет обходить id по возрастанию.
+     */
+    public int next(int after) {
+        lock.readLock().lock();
+        try {
+            return ids.nextSetBit(Math.max(0, after + 1));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
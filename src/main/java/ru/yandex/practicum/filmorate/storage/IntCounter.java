@@ -0,0 +1,126 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Счетчик по положительным int ключам на открытой адресации без упаковки в Integer.
+ * 0 в keys означает пустую ячейку, поэтому ключи должны быть больше 0, как id в базе.
+ */
+public class IntCounter {
+    private int[] keys;
+    private int[] counts;
+    private int size;
+
+    public IntCounter() {
+        this(16);
+    }
+
+    public IntCounter(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        counts = new int[capacity];
+    }
+
+    public void increment(int key) {
+        add(key, 1);
+    }
+
+    public void add(int key, int delta) {
+        int slot = slot(keys, key);
+        if (keys[slot] == 0) {
+            keys[slot] = key;
+            if (++size * 2 > keys.length) {
+                counts[slot] = delta;
+                resize();
+                return;
+            }
+        }
+        counts[slot] += delta;
+    }
+
+    public int get(int key) {
+        int slot = slot(keys, key);
+        return keys[slot] == 0 ? 0 : counts[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void addAll(IntCounter other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != 0) {
+                add(other.keys[i], other.counts[i]);
+            }
+        }
+    }
+
+    public void forEach(Entry consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                consumer.accept(keys[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Первые count ключей по убыванию значения, при равенстве - по возрастанию ключа.
+     * Ключи, для которых exclude вернул true, пропускаются. Куча на count элементов, без сортировки всех ключей.
+     */
+    public List<Integer> top(int count, KeyFilter exclude) {
+        PriorityQueue<Long> heap = new PriorityQueue<>(Math.max(1, count));
+        for (int i = 0; i < keys.length && count > 0; i++) {
+            if (keys[i] == 0 || counts[i] <= 0 || exclude.test(keys[i])) {
+                continue;
+            }
+            long rank = ((long) counts[i] << 32) | (Integer.MAX_VALUE - keys[i]);
+            if (heap.size() < count) {
+                heap.add(rank);
+            } else if (rank > heap.peek()) {
+                heap.poll();
+                heap.add(rank);
+            }
+        }
+        List<Integer> top = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            top.add(Integer.MAX_VALUE - (int) (long) heap.poll());
+        }
+        Collections.reverse(top);
+        return top;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private static int slot(int[] keys, int key) {
+        int mask = keys.length - 1;
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    public interface Entry {
+        void accept(int key, int count);
+    }
+
+    public interface KeyFilter {
+        boolean test(int key);
+    }
+}
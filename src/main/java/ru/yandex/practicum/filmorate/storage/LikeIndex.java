@@ -0,0 +1,16 @@
+package ru.yandex.practicum.filmorate.storage;
+
+/**
+ * Индекс в памяти поверх таблицы likes. Хранилище фильмов передает в него каждый записанный лайк
+ * и его удаление, а при пересборке - все лайки, отсортированные по пользователю.
+ * Изменения между beginLoad и load индекс должен накатить поверх загруженных лайков.
+ */
+public interface LikeIndex {
+    void beginLoad();
+
+    void load(int[] userIds, int[] filmIds, int size);
+
+    void addLike(int userId, int filmId);
+
+    void removeLike(int userId, int filmId);
+}
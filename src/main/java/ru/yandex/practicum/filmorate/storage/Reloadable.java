@@ -0,0 +1,9 @@
+package ru.yandex.practicum.filmorate.storage;
+
+/**
+ * Хранилище, которое держит в памяти индексы поверх базы данных.
+ * reload() перестраивает их по текущему содержимому таблиц.
+ */
+public interface Reloadable {
+    void reload();
+}
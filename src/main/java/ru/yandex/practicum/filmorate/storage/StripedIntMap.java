@@ -0,0 +1,219 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Отображение int -> V, разбитое на полосы по хэшу ключа. Каждая полоса - своя таблица с открытой адресацией
+ * на примитивных массивах и своя блокировка, поэтому операции над разными id почти не мешают друг другу.
+ * Составные операции над одной записью (проверить и изменить, изменить запись и дописать журнал)
+ * владелец делает сам под lock(key).
+ * Полоса выбирается по старшим битам хэша, ячейка внутри полосы - по младшим: если бы они пересекались,
+ * у всех ключей полосы совпадали бы одни и те же биты ячейки, и большая таблица заполнялась бы кластерами.
+ */
+public class StripedIntMap<V> {
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private final Stripe<V>[] stripes;
+    private final int mask;
+    private final int shift;
+
+    @SuppressWarnings("unchecked")
+    public StripedIntMap(int concurrency) {
+        int count = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        stripes = (Stripe<V>[]) new Stripe<?>[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        mask = count - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(count);
+    }
+
+    public ReadWriteLock lock(int key) {
+        return stripe(key).lock;
+    }
+
+    public V get(int key) {
+        Stripe<V> stripe = stripe(key);
+        stripe.lock.readLock().lock();
+        try {
+            return stripe.get(key);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    public V put(int key, V value) {
+        Stripe<V> stripe = stripe(key);
+        stripe.lock.writeLock().lock();
+        try {
+            return stripe.put(key, value);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * То же, что get, без блокировки: вызывающий уже держит lock(key).
+     */
+    public V getLocked(int key) {
+        return stripe(key).get(key);
+    }
+
+    /**
+     * То же, что put, без блокировки: вызывающий уже держит lock(key) на запись.
+     */
+    public V putLocked(int key, V value) {
+        return stripe(key).put(key, value);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe<V> stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Stripe<V> stripe : stripes) {
+            stripe.lock.writeLock().lock();
+            try {
+                stripe.clear();
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Обходит записи полоса за полосой, каждую полосу - под ее блокировкой на чтение. Порядок ключей не задан.
+     */
+    public void forEach(Entry<V> consumer) {
+        for (Stripe<V> stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                for (int i = 0; i < stripe.keys.length; i++) {
+                    if (stripe.keys[i] != EMPTY) {
+                        consumer.accept(stripe.keys[i], stripe.values[i]);
+                    }
+                }
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+    }
+
+    private Stripe<V> stripe(int key) {
+        // при одной полосе shift = 32, а сдвиг на 32 в Java ничего не делает - выручает mask
+        return stripes[mix(key) >>> shift & mask];
+    }
+
+    /**
+     * Наибольшее расстояние от домашней ячейки ключа до ячейки, где он лежит, по всем полосам.
+     */
+    int longestProbe() {
+        int longest = 0;
+        for (Stripe<V> stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                int length = stripe.keys.length;
+                for (int i = 0; i < length; i++) {
+                    if (stripe.keys[i] != EMPTY) {
+                        longest = Math.max(longest, i - (mix(stripe.keys[i]) & length - 1) & length - 1);
+                    }
+                }
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return longest;
+    }
+
+    private static int mix(int key) {
+        return key * 0x9E3779B9;
+    }
+
+    public interface Entry<V> {
+        void accept(int key, V value);
+    }
+
+    /**
+     * Таблица с линейным пробированием. Записи не удаляются: хранилища ничего не удаляют,
+     * кроме clear(), поэтому надгробия не нужны.
+     */
+    private static class Stripe<V> {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private int[] keys;
+        private V[] values;
+        private int size;
+
+        private Stripe() {
+            clear();
+        }
+
+        private V get(int key) {
+            int index = mix(key) & keys.length - 1;
+            while (keys[index] != EMPTY) {
+                if (keys[index] == key) {
+                    return values[index];
+                }
+                index = index + 1 & keys.length - 1;
+            }
+            return null;
+        }
+
+        private V put(int key, V value) {
+            if (key == EMPTY) {
+                throw new IllegalArgumentException("Недопустимый ключ " + key);
+            }
+            int index = mix(key) & keys.length - 1;
+            while (keys[index] != EMPTY) {
+                if (keys[index] == key) {
+                    V old = values[index];
+                    values[index] = value;
+                    return old;
+                }
+                index = index + 1 & keys.length - 1;
+            }
+            keys[index] = key;
+            values[index] = value;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void clear() {
+            keys = new int[16];
+            Arrays.fill(keys, EMPTY);
+            values = (V[]) new Object[16];
+            size = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void grow() {
+            int[] oldKeys = keys;
+            V[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            values = (V[]) new Object[keys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int index = mix(oldKeys[i]) & keys.length - 1;
+                    while (keys[index] != EMPTY) {
+                        index = index + 1 & keys.length - 1;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Журнал упреждающей записи для хранилищ в памяти. Хранилище дописывает в него изменение до того,
+ * как применить его в памяти, а при старте восстанавливает состояние: читает последнюю контрольную точку
+ * и проигрывает записи после нее.
+ * Записи лежат в файлах-поколениях name-N.wal. Запись: длина данных (int), номер (long, подряд с 1),
+ * тип (int), данные в формате хранилища и CRC32 номера, типа и данных. При восстановлении записи читаются,
+ * пока номер идет подряд и CRC сходится: недописанный после падения хвост отрезается, более поздние
+ * поколения удаляются.
+ * Контрольная точка - файл name.checkpoint: магическое число, номер последней вошедшей в нее записи,
+ * состояние хранилища и CRC32 всего этого. checkpoint() переключает запись на новое поколение, пишет
+ * состояние во временный файл, сбрасывает его на диск, атомарно переименовывает и удаляет старые поколения.
+ * Точка нечеткая: запись не останавливается, и в точку могут попасть изменения с номерами больше ее номера.
+ * Это безопасно, если хранилище дописывает запись и применяет изменение под одной блокировкой сущности,
+ * пишет сущность в точку под той же блокировкой, а повторное применение записи не меняет результат.
+ * С fsync=false записи попадают в страничный кэш ОС и переживают падение процесса, но не узла,
+ * с fsync=true append() возвращается после сброса записи на диск. Сброс групповой: запись дописывается
+ * под короткой блокировкой журнала, а сбрасывает файл один из ждущих потоков сразу за всех, кто успел дописать
+ * до него, поэтому записи разных полос хранилища не ждут сброса друг друга по очереди.
+ */
+@Slf4j
+public class WriteAheadLog implements Closeable {
+    private static final int MAGIC = 0x46574C31;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_RECORD_SIZE = 1 << 24;
+    private final Path directory;
+    private final String name;
+    private final boolean fsync;
+    private final Pattern generationFile;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+    private final CRC32 crc = new CRC32();
+    private final Object checkpointLock = new Object();
+    private final Object forceLock = new Object();
+    private FileChannel channel;
+    private int generation;
+    private long sequence;
+    private long checkpointSequence;
+    // сквозной счетчик дописанных записей: в отличие от sequence, не сбрасывается в clear() и recover()
+    private long appended;
+    private long forced;
+
+    public WriteAheadLog(Path directory, String name, boolean fsync) {
+        this.directory = directory;
+        this.name = name;
+        this.fsync = fsync;
+        this.generationFile = Pattern.compile(Pattern.quote(name) + "-(\\d+)\\.wal");
+    }
+
+    /**
+     * Номер последней записи.
+     */
+    public synchronized long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Дописывает запись и возвращает ее номер. Если записать не удалось, хвост файла откатывается
+     * и бросается UncheckedIOException: изменение нельзя применять. С fsync=true ждет сброса записи на диск;
+     * если сброс не удался, запись могла остаться в файле, но изменение тоже не применяется.
+     */
+    public long append(int type, Writer record) {
+        long[] written = write(type, record);
+        if (fsync) {
+            awaitForce(written[1]);
+        }
+        return written[0];
+    }
+
+    /**
+     * Дописывает запись без сброса на диск и возвращает ее номер и значение счетчика appended.
+     */
+    private synchronized long[] write(int type, Writer record) {
+        if (channel == null) {
+            throw new IllegalStateException("Журнал " + name + " не открыт");
+        }
+        long position = -1;
+        try {
+            buffer.reset();
+            record.write(bufferOut);
+            bufferOut.flush();
+            int length = buffer.size();
+            long next = sequence + 1;
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length + 4);
+            frame.putInt(length).putLong(next).putInt(type).put(buffer.toByteArray());
+            frame.putInt(checksum(frame.array(), length));
+            frame.flip();
+            position = channel.position();
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+            sequence = next;
+            return new long[]{next, ++appended};
+        } catch (IOException e) {
+            if (position >= 0) {
+                try {
+                    channel.truncate(position);
+                    channel.position(position);
+                } catch (IOException e2) {
+                    e.addSuppressed(e2);
+                }
+            }
+            throw new UncheckedIOException("Не удалось дописать журнал " + name, e);
+        }
+    }
+
+    /**
+     * Ждет, пока запись с номером ticket по счетчику appended окажется на диске. Поток, первым занявший
+     * forceLock, сбрасывает все дописанное к этому моменту, остальные находят свои записи уже сброшенными.
+     */
+    private void awaitForce(long ticket) {
+        synchronized (forceLock) {
+            if (forced >= ticket) {
+                return;
+            }
+            long upTo;
+            FileChannel current;
+            synchronized (this) {
+                upTo = appended;
+                current = channel;
+            }
+            try {
+                if (current != null) {
+                    current.force(false);
+                }
+            } catch (ClosedChannelException e) {
+                // поколение переключено, closeChannel() сбросил файл перед закрытием
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось сбросить журнал " + name + " на диск", e);
+            }
+            forced = upTo;
+        }
+    }
+
+    /**
+     * Сбрасывает состояние хранилища через reset, загружает контрольную точку в reader, проигрывает
+     * в replayer записи после нее и открывает новое поколение для записи. Все это идет под блокировкой
+     * контрольных точек: checkpoint() не запишет пустое или наполовину восстановленное состояние.
+     * Не должен выполняться одновременно с append().
+     */
+    public void recover(Runnable reset, Reader reader, Replayer replayer) {
+        synchronized (checkpointLock) {
+            synchronized (this) {
+                closeChannel();
+                reset.run();
+                try {
+                    Files.createDirectories(directory);
+                    checkpointSequence = readCheckpoint(reader);
+                    sequence = checkpointSequence;
+                    List<Integer> generations = generations();
+                    boolean broken = false;
+                    for (int number : generations) {
+                        if (broken) {
+                            log.warn("Поколение журнала " + file(number) + " идет после поврежденной записи и удалено");
+                            Files.delete(file(number));
+                        } else {
+                            broken = !replay(file(number), replayer);
+                        }
+                    }
+                    openGeneration(generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Не удалось восстановить журнал " + name, e);
+                }
+                log.info("Журнал " + name + " восстановлен: контрольная точка " + checkpointSequence
+                        + ", последняя запись " + sequence);
+            }
+        }
+    }
+
+    /**
+     * Записывает контрольную точку с состоянием от writer и удаляет поколения, которые она покрывает.
+     * Возвращает false, если с прошлой точки не было записей или точку записать не удалось.
+     */
+    public boolean checkpoint(Writer writer) {
+        synchronized (checkpointLock) {
+            long covered;
+            int firstGeneration;
+            synchronized (this) {
+                if (channel == null || sequence == checkpointSequence && Files.exists(checkpointFile())) {
+                    return false;
+                }
+                covered = sequence;
+                try {
+                    openGeneration(generation + 1);
+                } catch (IOException e) {
+                    log.error("Не удалось переключить поколение журнала " + name, e);
+                    return false;
+                }
+                firstGeneration = generation;
+            }
+            Path temporary = directory.resolve(name + ".checkpoint.tmp");
+            try {
+                writeCheckpoint(temporary, covered, writer);
+                Files.move(temporary, checkpointFile(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                synchronized (this) {
+                    checkpointSequence = covered;
+                }
+                for (int number : generations()) {
+                    if (number < firstGeneration) {
+                        Files.delete(file(number));
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                log.error("Не удалось записать контрольную точку журнала " + name, e);
+                return false;
+            }
+            log.info("Контрольная точка журнала " + name + " записана, последняя запись в ней: " + covered);
+            return true;
+        }
+    }
+
+    /**
+     * Удаляет все поколения и контрольную точку и начинает журнал заново. Состояние хранилища сбрасывается
+     * через reset под той же блокировкой, что и checkpoint(), чтобы прежнее состояние не попало в новую точку.
+     */
+    public void clear(Runnable reset) {
+        synchronized (checkpointLock) {
+            synchronized (this) {
+                closeChannel();
+                reset.run();
+                try {
+                    Files.createDirectories(directory);
+                    for (int number : generations()) {
+                        Files.delete(file(number));
+                    }
+                    Files.deleteIfExists(checkpointFile());
+                    sequence = 0;
+                    checkpointSequence = 0;
+                    openGeneration(1);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Не удалось очистить журнал " + name, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeChannel();
+    }
+
+    /**
+     * Проигрывает записи файла. Возвращает false, если встретилась поврежденная запись:
+     * файл обрезается перед ней.
+     */
+    private boolean replay(Path file, Replayer replayer) throws IOException {
+        long offset = 0;
+        byte[] header = new byte[HEADER_SIZE];
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            DataInputStream data = new DataInputStream(in);
+            while (true) {
+                int read = in.readNBytes(header, 0, HEADER_SIZE);
+                if (read == 0) {
+                    return true;
+                }
+                ByteBuffer fields = ByteBuffer.wrap(header);
+                int length = fields.getInt();
+                long number = fields.getLong();
+                int type = fields.getInt();
+                if (read < HEADER_SIZE || length < 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+                byte[] frame = new byte[HEADER_SIZE + length];
+                System.arraycopy(header, 0, frame, 0, HEADER_SIZE);
+                int storedCrc;
+                try {
+                    data.readFully(frame, HEADER_SIZE, length);
+                    storedCrc = data.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (storedCrc != checksum(frame, length)) {
+                    break;
+                }
+                if (number > checkpointSequence) {
+                    if (number != sequence + 1) {
+                        break;
+                    }
+                    replayer.apply(type, new DataInputStream(new ByteArrayInputStream(frame, HEADER_SIZE, length)));
+                    sequence = number;
+                }
+                offset += HEADER_SIZE + length + 4;
+            }
+        }
+        log.warn("В журнале " + file + " отброшен поврежденный хвост с байта " + offset);
+        try (FileChannel truncated = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            truncated.truncate(offset);
+        }
+        return false;
+    }
+
+    private long readCheckpoint(Reader reader) throws IOException {
+        Path file = checkpointFile();
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)),
+                new CRC32())) {
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC) {
+                throw new IllegalStateException("Файл " + file + " не является контрольной точкой журнала");
+            }
+            long covered = in.readLong();
+            reader.read(in);
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IllegalStateException("Контрольная точка " + file + " повреждена");
+            }
+            return covered;
+        }
+    }
+
+    private void writeCheckpoint(Path file, long covered, Writer writer) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            BufferedOutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16);
+            CheckedOutputStream checked = new CheckedOutputStream(buffered, new CRC32());
+            DataOutputStream data = new DataOutputStream(checked);
+            data.writeInt(MAGIC);
+            data.writeLong(covered);
+            writer.write(data);
+            data.flush();
+            new DataOutputStream(buffered).writeLong(checked.getChecksum().getValue());
+            buffered.flush();
+            out.force(true);
+        }
+    }
+
+    private void openGeneration(int number) throws IOException {
+        closeChannel();
+        channel = FileChannel.open(file(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        generation = number;
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            log.error("Не удалось закрыть журнал " + name, e);
+        }
+        channel = null;
+    }
+
+    private List<Integer> generations() throws IOException {
+        List<Integer> generations = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = generationFile.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    generations.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private Path file(int number) {
+        return directory.resolve(name + "-" + number + ".wal");
+    }
+
+    private Path checkpointFile() {
+        return directory.resolve(name + ".checkpoint");
+    }
+
+    /**
+     * CRC номера, типа и данных: frame без поля длины.
+     */
+    private int checksum(byte[] frame, int length) {
+        crc.reset();
+        crc.update(frame, 4, HEADER_SIZE - 4 + length);
+        return (int) crc.getValue();
+    }
+
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeInteger(DataOutput out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    public static Integer readInteger(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    public static void writeDate(DataOutput out, LocalDate value) throws IOException {
+        out.writeLong(value == null ? Long.MIN_VALUE : value.toEpochDay());
+    }
+
+    public static LocalDate readDate(DataInput in) throws IOException {
+        long day = in.readLong();
+        return day == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(day);
+    }
+
+    public static void writeIds(DataOutput out, int[] ids) throws IOException {
+        out.writeInt(ids.length);
+        for (int id : ids) {
+            out.writeInt(id);
+        }
+    }
+
+    public static int[] readIds(DataInput in) throws IOException {
+        int[] ids = new int[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readInt();
+        }
+        return ids;
+    }
+
+    public interface Writer {
+        void write(DataOutput out) throws IOException;
+    }
+
+    public interface Reader {
+        void read(DataInput in) throws IOException;
+    }
+
+    public interface Replayer {
+        void apply(int type, DataInput in) throws IOException;
+    }
+}
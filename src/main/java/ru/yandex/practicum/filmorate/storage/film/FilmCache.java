@@ -0,0 +1,141 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кэш фильмов по id с ограничением размера и вытеснением давно не читанных (LRU).
+ * Запись живет не дольше ttl, нулевой ttl - без ограничения по времени.
+ * Ведет счетчики попаданий, промахов и вытеснений.
+ * Кэш хранит свои копии фильмов и отдает копии: изменение фильма вызывающим кодом не портит запись.
+ * Чтобы фильм, прочитанный из базы до изменения, не попал в кэш после его инвалидации, читающий берет
+ * version(id) до запроса к базе, а put() с устаревшей версией ничего не делает. Версии хранятся
+ * в VERSION_SLOTS ячейках по остатку от id: совпадение ячейки только лишний раз отбрасывает put().
+ */
+public class FilmCache {
+    private static final int VERSION_SLOTS = 1024;
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<Integer, Entry> entries;
+    private final long[] versions = new long[VERSION_SLOTS];
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public FilmCache(int maxSize, Duration ttl) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > FilmCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized Film get(int filmId) {
+        Entry entry = entries.get(filmId);
+        if (entry == null || isExpired(entry)) {
+            if (entry != null) {
+                entries.remove(filmId);
+            }
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(entry.film);
+    }
+
+    /**
+     * Версия записи фильма, которую нужно передать в put() после чтения фильма из базы.
+     */
+    public synchronized long version(int filmId) {
+        return versions[slot(filmId)];
+    }
+
+    /**
+     * Кладет копию фильма в кэш, если с момента version() фильм не инвалидировался.
+     */
+    public synchronized void put(Film film, long version) {
+        if (maxSize > 0 && versions[slot(film.getId())] == version) {
+            entries.put(film.getId(), new Entry(copy(film), System.nanoTime()));
+        }
+    }
+
+    public synchronized void invalidate(int filmId) {
+        entries.remove(filmId);
+        versions[slot(filmId)]++;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        for (int i = 0; i < VERSION_SLOTS; i++) {
+            versions[i]++;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FilmCache(size=" + entries.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ")";
+    }
+
+    private static int slot(int filmId) {
+        return filmId & (VERSION_SLOTS - 1);
+    }
+
+    private static Film copy(Film film) {
+        Mpa mpa = film.getMpa();
+        Film copy = Film.builder()
+                .id(film.getId())
+                .name(film.getName())
+                .description(film.getDescription())
+                .releaseDate(film.getReleaseDate())
+                .duration(film.getDuration())
+                .mpa(mpa == null ? null : new Mpa(mpa.getId(), mpa.getName()))
+                .likesCount(film.getLikesCount())
+                .build();
+        film.getGenres().forEach(genre -> copy.getGenres().add(new Genre(genre.getId(), genre.getName())));
+        return copy;
+    }
+
+    private boolean isExpired(Entry entry) {
+        return ttlNanos > 0 && System.nanoTime() - entry.loadedAt > ttlNanos;
+    }
+
+    private static class Entry {
+        private final Film film;
+        private final long loadedAt;
+
+        private Entry(Film film, long loadedAt) {
+            this.film = film;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -2,94 +2,413 @@ package ru.yandex.practicum.filmorate.storage.film;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.CommonFilms;
 import ru.yandex.practicum.filmorate.model.Film;
-import ru.yandex.practicum.filmorate.model.Genre;
-import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.Like;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.EventJournal;
+import ru.yandex.practicum.filmorate.storage.IdIndex;
+import ru.yandex.practicum.filmorate.storage.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
+import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
+import ru.yandex.practicum.filmorate.storage.user.LikedFilmsIndex;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 @Repository("FilmDbStorage")
+@ConditionalOnProperty(name = "filmorate.storage.engine", havingValue = "db", matchIfMissing = true)
 @Slf4j
-public class FilmDbStorage implements FilmStorage{
+public class FilmDbStorage implements FilmStorage, Reloadable {
+    private static final String GENRES_QUERY = "SELECT gf.film_id, gf.genre_id FROM genre_films AS gf";
+    private static final String FILM_INSERT = "INSERT INTO film (name, description, release_date, duration, mpa, " +
+            "fingerprint) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String GENRE_INSERT = "INSERT INTO genre_films (film_id, genre_id) VALUES (?, ?)";
+    private static final String LIKE_INSERT = "INSERT INTO likes (person_id, film_id) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM likes WHERE person_id = ? AND film_id = ?)";
+    private static final String DUPLICATE_FILM = "Такой фильм уже есть";
+    private static final String DUPLICATE_LIKE = "Лайк уже есть";
     private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final SimpleJdbcInsert filmInsert;
+    private final TransactionTemplate transactionTemplate;
+    private final GenreStorage genres;
+    private final MpaStorage mpas;
+    private final UserStorage users;
+    private final FilmPopularityIndex popularity;
+    private final FilmSimilarityIndex similarity;
+    private final FilmSearchIndex search;
+    private final LikedFilmsIndex likedFilms;
+    private final EventJournal journal;
+    private final List<LikeIndex> likeIndexes;
+    private final FilmCache cache;
+    private final IdIndex filmIds = new IdIndex();
+    private final int exportFetchSize;
+    private final int batchSize;
+    private final LikeWriteBehindQueue writeBehind;
+    private final ScheduledExecutorService likeIndexRebuild;
+    private final long rebuildIntervalMillis;
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
 
     @Autowired
-    public FilmDbStorage(JdbcTemplate jdbcTemplate) {
+    public FilmDbStorage(JdbcTemplate jdbcTemplate, GenreStorage genres, MpaStorage mpas,
+                         @Qualifier("UserDbStorage") UserStorage users, FilmPopularityIndex popularity,
+                         FilmSimilarityIndex similarity, List<LikeIndex> likeIndexes, FilmSearchIndex search,
+                         LikedFilmsIndex likedFilms, EventJournal journal,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${filmorate.cache.films.max-size:10000}") int cacheMaxSize,
+                         @Value("${filmorate.cache.films.ttl:10m}") Duration cacheTtl,
+                         @Value("${filmorate.export.fetch-size:500}") int exportFetchSize,
+                         @Value("${filmorate.batch.size:1000}") int batchSize,
+                         @Value("${filmorate.likes.write-behind.enabled:false}") boolean writeBehindEnabled,
+                         @Value("${filmorate.likes.write-behind.capacity:65536}") int writeBehindCapacity,
+                         @Value("${filmorate.likes.write-behind.window:50ms}") Duration writeBehindWindow,
+                         @Value("${filmorate.likes.write-behind.offer-timeout:1s}") Duration writeBehindTimeout,
+                         @Value("${filmorate.films.similar.rebuild-interval:10m}") Duration rebuildInterval) {
         this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.filmInsert = new SimpleJdbcInsert(jdbcTemplate)
+                .withTableName("film")
+                .usingColumns("name", "description", "release_date", "duration", "mpa", "fingerprint")
+                .usingGeneratedKeyColumns("film_id");
+        this.genres = genres;
+        this.mpas = mpas;
+        this.users = users;
+        this.popularity = popularity;
+        this.similarity = similarity;
+        this.likeIndexes = likeIndexes;
+        this.search = search;
+        this.likedFilms = likedFilms;
+        this.journal = journal;
+        this.cache = new FilmCache(cacheMaxSize, cacheTtl);
+        this.exportFetchSize = exportFetchSize;
+        this.batchSize = batchSize;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.writeBehind = writeBehindEnabled ? new LikeWriteBehindQueue(writeBehindCapacity, batchSize,
+                writeBehindWindow, writeBehindTimeout, this::writeLikes) : null;
+        this.likeIndexRebuild = rebuildInterval.isZero() ? null
+                : Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "like-index-rebuild");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.rebuildIntervalMillis = rebuildInterval.toMillis();
     }
 
     @Override
+    @PostConstruct
+    public void reload() {
+        String sqlQuery = "SELECT film_id, like_count, name, description, release_date FROM film";
+        Map<Integer, Integer> likesByFilm = new HashMap<>();
+        Map<Integer, Integer> yearByFilm = new HashMap<>();
+        Map<Integer, List<Integer>> genresByFilm = new HashMap<>();
+        filmIds.clear();
+        search.clear();
+        jdbcTemplate.query(sqlQuery, (RowCallbackHandler) rs -> {
+            filmIds.add(rs.getInt("film_id"));
+            likesByFilm.put(rs.getInt("film_id"), rs.getInt("like_count"));
+            yearByFilm.put(rs.getInt("film_id"), rs.getDate("release_date").toLocalDate().getYear());
+            search.put(rs.getInt("film_id"), rs.getString("name"), rs.getString("description"));
+        });
+        jdbcTemplate.query(GENRES_QUERY, (RowCallbackHandler) rs -> genresByFilm
+                .computeIfAbsent(rs.getInt("film_id"), id -> new ArrayList<>()).add(rs.getInt("genre_id")));
+        popularity.load(likesByFilm);
+        yearByFilm.forEach((filmId, year) -> popularity.putFilm(filmId, year,
+                genresByFilm.getOrDefault(filmId, List.of())));
+        log.info("Рейтинг фильмов загружен, фильмов: " + likesByFilm.size());
+        log.info("Кэш фильмов перед очисткой: " + cache);
+        cache.clear();
+        if (!loadLikeIndexesFromJournal()) {
+            likeIndexes.forEach(LikeIndex::beginLoad);
+            int[] size = {0};
+            int[][] pairs = queryLikes(size);
+            likeIndexes.forEach(index -> index.load(pairs[0], pairs[1], size[0]));
+            log.info("Индексы лайков загружены, лайков: " + size[0]);
+            journal.seed(EventJournal.LIKE_ADD, pairs[0], pairs[1], size[0], EventJournal.LIKES_SEEDED);
+        }
+        scheduleLikeIndexRebuild();
+    }
+
+    /**
+     * Запускает периодическую пересборку индексов лайков после первой загрузки, один раз: до загрузки
+     * пересборке нечего обновлять, а конструктор хранилища не запускает фоновых задач.
+     */
+    private void scheduleLikeIndexRebuild() {
+        if (likeIndexRebuild != null && rebuildScheduled.compareAndSet(false, true)) {
+            likeIndexRebuild.scheduleWithFixedDelay(this::rebuildLikeIndexes, rebuildIntervalMillis,
+                    rebuildIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Полная пересборка индексов лайков (матрицы совместных лайков, MinHash-сигнатур) из таблицы likes.
+     * Между пересборками индексы обновляются на каждый лайк, пересборка подтягивает лайки,
+     * записанные мимо этого узла.
+     */
+    public void rebuildLikeIndexes() {
+        try {
+            likeIndexes.forEach(LikeIndex::beginLoad);
+            int[] size = {0};
+            int[][] pairs = queryLikes(size);
+            likeIndexes.forEach(index -> index.load(pairs[0], pairs[1], size[0]));
+            log.info("Индексы лайков пересобраны, лайков: " + size[0]);
+        } catch (RuntimeException e) {
+            // исключение остановило бы периодическую пересборку
+            log.error("Не удалось пересобрать индексы лайков", e);
+        }
+    }
+
+    /**
+     * Пары (id пользователя, id фильма) из таблицы likes, упорядоченные по пользователю.
+     * Кол-во пар записывается в size[0].
+     */
+    private int[][] queryLikes(int[] size) {
+        int[][] pairs = {new int[1024], new int[1024]};
+        jdbcTemplate.query("SELECT person_id, film_id FROM likes ORDER BY person_id",
+                (RowCallbackHandler) rs -> {
+                    if (size[0] == pairs[0].length) {
+                        pairs[0] = Arrays.copyOf(pairs[0], size[0] * 2);
+                        pairs[1] = Arrays.copyOf(pairs[1], size[0] * 2);
+                    }
+                    pairs[0][size[0]] = rs.getInt(1);
+                    pairs[1][size[0]++] = rs.getInt(2);
+                });
+        return pairs;
+    }
+
+    /**
+     * Загружает индексы лайков проигрыванием журнала событий. Возвращает false, если журнал выключен
+     * или еще не содержит начального состояния likes.
+     */
+    private boolean loadLikeIndexesFromJournal() {
+        if (!journal.isEnabled()) {
+            return false;
+        }
+        journal.bind(jdbcTemplate.queryForObject("SELECT generation FROM schema_generation", Long.class));
+        Set<Long> likes = new HashSet<>();
+        boolean[] seeded = {false};
+        journal.replay((sequence, type, first, second) -> {
+            if (type == EventJournal.LIKES_SEEDED) {
+                seeded[0] = true;
+            } else if (type == EventJournal.LIKE_ADD) {
+                likes.add((long) first << 32 | second);
+            } else if (type == EventJournal.LIKE_REMOVE) {
+                likes.remove((long) first << 32 | second);
+            }
+        });
+        if (!seeded[0]) {
+            return false;
+        }
+        long[] sorted = likes.stream().mapToLong(Long::longValue).sorted().toArray();
+        int[] userIds = new int[sorted.length];
+        int[] filmIds = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            userIds[i] = (int) (sorted[i] >>> 32);
+            filmIds[i] = (int) sorted[i];
+        }
+        likeIndexes.forEach(LikeIndex::beginLoad);
+        likeIndexes.forEach(index -> index.load(userIds, filmIds, sorted.length));
+        log.info("Индексы лайков восстановлены из журнала событий, лайков: " + sorted.length);
+        return true;
+    }
+
+    @Override
+    @Transactional
     public void add(Film film) throws ResponseStatusException {
-        if (dbContainsFilm(film)) {
-            log.warn("Такой фильм уже есть");
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Такой фильм уже есть");
+        Integer filmId;
+        try {
+            filmId = filmInsert.executeAndReturnKey(film.toMap()).intValue();
+        } catch (DuplicateKeyException e) {
+            log.warn(DUPLICATE_FILM);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, DUPLICATE_FILM);
         }
-        Integer filmId = addFilmInfo(film);
         film.setId(filmId);
-        String sqlQuery = "INSERT into genre_films (film_id, genre_id) "
-                + " VALUES (?, ?)";
-        if (film.getGenres() != null) {
-            for (Genre genre : film.getGenres()) {
-                jdbcTemplate.update(sqlQuery,
-                        filmId,
-                        genre.getId()
-                );
+        addGenres(List.of(film));
+        AfterCommit.run(() -> {
+            filmIds.add(filmId);
+            popularity.putFilm(filmId, film.getReleaseDate().getYear(), genreIds(film));
+            search.put(filmId, film.getName(), film.getDescription());
+        });
+    }
+
+    /**
+     * Вставляет фильмы пачками по batchSize: одна пачка - один batch-запрос в film, один в genre_films
+     * и одна транзакция. Фильмы с неизвестным рейтингом или жанром и дубли отсеиваются до вставки.
+     * Если пачка все же упала на уникальном индексе (дубль вставил другой запрос), она откатывается
+     * и фильмы из нее добавляются по одному.
+     */
+    @Override
+    public List<String> addFilms(List<Film> films) {
+        List<String> errors = new ArrayList<>(Collections.nCopies(films.size(), null));
+        for (int from = 0; from < films.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, films.size());
+            Map<String, Integer> pending = new LinkedHashMap<>();
+            for (int i = from; i < to; i++) {
+                Film film = films.get(i);
+                try {
+                    mpas.getMpa(film.getMpa().getId());
+                    film.getGenres().forEach(genre -> genres.getGenre(genre.getId()));
+                } catch (ResponseStatusException e) {
+                    errors.set(i, e.getReason());
+                    continue;
+                }
+                if (pending.putIfAbsent(film.fingerprint(), i) != null) {
+                    errors.set(i, DUPLICATE_FILM);
+                }
+            }
+            if (!pending.isEmpty()) {
+                String sqlQuery = "SELECT fingerprint FROM film WHERE fingerprint IN (:fingerprints)";
+                namedJdbcTemplate.queryForList(sqlQuery, new MapSqlParameterSource("fingerprints", pending.keySet()),
+                        String.class).forEach(fingerprint -> errors.set(pending.remove(fingerprint), DUPLICATE_FILM));
             }
+            List<Film> batch = new ArrayList<>(pending.size());
+            pending.values().forEach(i -> batch.add(films.get(i)));
+            try {
+                transactionTemplate.executeWithoutResult(status -> insertBatch(batch));
+            } catch (DuplicateKeyException e) {
+                log.warn("Пачка фильмов откатилась из-за дубля, добавляем по одному");
+                pending.values().forEach(i -> {
+                    try {
+                        // через шаблон, а не прокси: вызов this.add() обошел бы @Transactional
+                        transactionTemplate.executeWithoutResult(status -> add(films.get(i)));
+                    } catch (ResponseStatusException e2) {
+                        errors.set(i, e2.getReason());
+                    }
+                });
+                continue;
+            }
+            batch.forEach(film -> {
+                filmIds.add(film.getId());
+                popularity.putFilm(film.getId(), film.getReleaseDate().getYear(), genreIds(film));
+                search.put(film.getId(), film.getName(), film.getDescription());
+            });
         }
+        return errors;
     }
 
     @Override
+    @Transactional
     public Film update (Film film) {
-        String sqlQuery = "UPDATE film " +
-                "SET name = ?, description = ?, release_date = ?, duration = ?, mpa = ? WHERE film_id = ?";
-        if (jdbcTemplate.update(sqlQuery, film.getName(), film.getDescription(), film.getReleaseDate()
-                , film.getDuration(), film.getMpa().getId(), film.getId()) == 0) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Фильма с id=" + film.getId() + " нет");
-        }
-        if (film.getGenres().size() == 0) {
-            String sqlQuery2 = "DELETE FROM genre_films WHERE film_id = ?";
-            jdbcTemplate.update(sqlQuery2, film.getId());
+        String sqlQuery = "UPDATE film SET name = ?, description = ?, release_date = ?, duration = ?, mpa = ?, " +
+                "fingerprint = ? WHERE film_id = ?";
+        int updated;
+        try {
+            updated = jdbcTemplate.update(sqlQuery, film.getName(), film.getDescription(), film.getReleaseDate()
+                    , film.getDuration(), film.getMpa().getId(), film.fingerprint(), film.getId());
+        } catch (DuplicateKeyException e) {
+            log.warn(DUPLICATE_FILM);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, DUPLICATE_FILM);
         }
-        if (film.getGenres() != null && film.getGenres().size() != 0) {
-            String sqlQuery2 = "DELETE FROM genre_films WHERE film_id = ?";
-            jdbcTemplate.update(sqlQuery2, film.getId());
-            String sqlQuery3 = "INSERT INTO genre_films (film_id, genre_id) VALUES (?, ?)";
-            film.getGenres().forEach(genre -> jdbcTemplate.update(sqlQuery3, film.getId(), genre.getId()));
+        if (updated == 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Фильма с id=" + film.getId() + " нет");
         }
-        Film film2 = getFilm(film.getId());
-        return film2;
+        jdbcTemplate.update("DELETE FROM genre_films WHERE film_id = ?", film.getId());
+        addGenres(List.of(film));
+        AfterCommit.run(() -> {
+            search.put(film.getId(), film.getName(), film.getDescription());
+            popularity.putFilm(film.getId(), film.getReleaseDate().getYear(), genreIds(film));
+            cache.invalidate(film.getId());
+        });
+        // мимо кэша: внутри внешней транзакции он еще хранит фильм до изменения
+        return loadFilm(film.getId());
     }
 
     public List<Film> getFilmsList() {
-        String sqlQuery = "SELECT film.*, mpa.mpa_name FROM film JOIN mpa ON film.mpa = mpa.mpa_id";
-        return jdbcTemplate.query(sqlQuery, this::makeFilm);
+        String sqlQuery = "SELECT film.* FROM film ORDER BY film.film_id";
+        List<Film> films = jdbcTemplate.query(sqlQuery, this::makeFilm);
+        Map<Integer, Film> filmsById = toMap(films);
+        jdbcTemplate.query(GENRES_QUERY, (RowCallbackHandler) rs -> addGenre(filmsById, rs));
+        return films;
     }
 
+    @Override
+    public List<Film> getFilmsPage(Integer after, Integer limit) {
+        String sqlQuery = "SELECT film.* FROM film WHERE film.film_id > ? ORDER BY film.film_id LIMIT ?";
+        return hydrate(jdbcTemplate.query(sqlQuery, this::makeFilm, after, limit));
+    }
+
+    /**
+     * Читает фильмы однонаправленным курсором и отдает их по одному, не собирая весь список в памяти.
+     * Жанры догружаются пачками по exportFetchSize фильмов.
+     */
+    @Override
+    public void exportFilms(Consumer<Film> consumer) {
+        String sqlQuery = "SELECT film.* FROM film ORDER BY film.film_id";
+        List<Film> chunk = new ArrayList<>(exportFetchSize);
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sqlQuery,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(exportFetchSize);
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            chunk.add(makeFilm(rs, 0));
+            if (chunk.size() == exportFetchSize) {
+                hydrate(chunk).forEach(consumer);
+                chunk.clear();
+            }
+        });
+        hydrate(chunk).forEach(consumer);
+    }
 
     @Override
     public Film getFilm(Integer id) {
-        String sqlQuery = "SELECT film_id, name, description, release_date, duration, film.mpa, mpa.mpa_name " +
-                "FROM film JOIN MPA ON film.mpa = mpa.mpa_id WHERE film.film_id = ?";
+        Film cached = cache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        long version = cache.version(id);
+        Film film = loadFilm(id);
+        cache.put(film, version);
+        return film;
+    }
+
+    private Film loadFilm(int id) {
+        String sqlQuery = "SELECT film_id, name, description, release_date, duration, mpa, like_count " +
+                "FROM film WHERE film_id = ?";
         Film film;
         try {
             film = jdbcTemplate.queryForObject(sqlQuery, this::makeFilm, id);
         } catch (EmptyResultDataAccessException e) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Фильма с id=" + id + " нет");
         }
+        hydrate(List.of(film));
         return film;
     }
 
     @Override
+    @Transactional
     public void addLike(Integer userId, Integer filmId) throws  ResponseStatusException {
         if (!dbContainsUser(userId)) {
             String message = "Ошибка запроса добавления лайка фильму." +
@@ -101,6 +420,10 @@ public class FilmDbStorage implements FilmStorage{
                     " Невозможно поставить лайк фильму с id= " + filmId + " которого не существует.";
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
         }
+        if (writeBehind != null) {
+            enqueueLike(userId, filmId, true);
+            return;
+        }
         String sqlQuery = "INSERT INTO likes (person_id, film_id) VALUES (?, ?)";
         try {
             jdbcTemplate.update(sqlQuery, userId, filmId);
@@ -109,9 +432,103 @@ public class FilmDbStorage implements FilmStorage{
                     " Попытка полькователем поставить лайк дважды одному фильму.";
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, message);
         }
+        jdbcTemplate.update("UPDATE film SET like_count = like_count + 1 WHERE film_id = ?", filmId);
+        AfterCommit.run(() -> {
+            popularity.addLike(filmId);
+            likeIndexes.forEach(index -> index.addLike(userId, filmId));
+            journal.append(EventJournal.LIKE_ADD, userId, filmId);
+            cache.invalidate(filmId);
+        });
     }
 
+    /**
+     * Пишет лайки пачками по batchSize: одна пачка - один batch-запрос в likes, один в film.like_count
+     * и одна транзакция. Существование пользователей и фильмов проверяется по индексам id.
+     * INSERT ... WHERE NOT EXISTS возвращает 0 для уже существующего лайка, поэтому дубли пропускаются
+     * без отдельного запроса. Если пачка все же упала на первичном ключе (тот же лайк пришел параллельно),
+     * она откатывается и лайки из нее добавляются по одному, каждый в своей транзакции: дубль пропускается,
+     * любая другая ошибка записывается как неудача.
+     */
     @Override
+    public BatchResult addLikes(List<Like> likes) {
+        BatchResult result = new BatchResult();
+        for (int from = 0; from < likes.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, likes.size());
+            List<Integer> indexes = new ArrayList<>(to - from);
+            List<Like> batch = new ArrayList<>(to - from);
+            Set<Long> seen = new HashSet<>();
+            for (int i = from; i < to; i++) {
+                Like like = likes.get(i);
+                if (like == null || like.getUserId() == null || like.getFilmId() == null) {
+                    result.failure(i, "Не указан id пользователя или фильма");
+                } else if (!dbContainsUser(like.getUserId())) {
+                    result.failure(i, "Пользователя с id=" + like.getUserId() + " нет");
+                } else if (!dbContainsFilm(like.getFilmId())) {
+                    result.failure(i, "Фильма с id=" + like.getFilmId() + " нет");
+                } else if (!seen.add(((long) like.getUserId() << 32) | like.getFilmId())) {
+                    result.skip(i, DUPLICATE_LIKE);
+                } else {
+                    indexes.add(i);
+                    batch.add(like);
+                }
+            }
+            Map<Integer, Integer> addedByFilm = new HashMap<>();
+            int[] inserted;
+            try {
+                inserted = transactionTemplate.execute(status -> insertLikesCounted(batch, addedByFilm));
+            } catch (DuplicateKeyException e) {
+                log.warn("Пачка лайков откатилась из-за дубля, добавляем по одному");
+                for (Integer i : indexes) {
+                    addLikeAlone(likes.get(i), i, result);
+                }
+                continue;
+            }
+            for (int j = 0; j < indexes.size(); j++) {
+                if (inserted[j] > 0) {
+                    result.success(indexes.get(j), null);
+                } else {
+                    result.skip(indexes.get(j), DUPLICATE_LIKE);
+                }
+            }
+            publishLikeCounts(addedByFilm);
+            indexLikes(batch, inserted, true);
+        }
+        return result.sorted();
+    }
+
+    private void addLikeAlone(Like like, int index, BatchResult result) {
+        List<Like> single = List.of(like);
+        Map<Integer, Integer> addedByFilm = new HashMap<>();
+        int[] inserted;
+        try {
+            inserted = transactionTemplate.execute(status -> insertLikesCounted(single, addedByFilm));
+        } catch (DuplicateKeyException e) {
+            result.skip(index, DUPLICATE_LIKE);
+            return;
+        } catch (DataAccessException e) {
+            log.warn("Не удалось добавить лайк пользователя с id=" + like.getUserId() + " фильму с id="
+                    + like.getFilmId(), e);
+            result.failure(index, "Не удалось добавить лайк: " + e.getMostSpecificCause().getMessage());
+            return;
+        }
+        if (inserted[0] > 0) {
+            result.success(index, null);
+        } else {
+            result.skip(index, DUPLICATE_LIKE);
+        }
+        publishLikeCounts(addedByFilm);
+        indexLikes(single, inserted, true);
+    }
+
+    private int[] insertLikesCounted(List<Like> likes, Map<Integer, Integer> addedByFilm) {
+        int[] changed = insertLikes(likes);
+        countChanges(addedByFilm, likes, changed, 1);
+        updateLikeCounts(addedByFilm);
+        return changed;
+    }
+
+    @Override
+    @Transactional
     public void deleteLike(Integer userId, Integer filmId) {
         if (!dbContainsUser(userId)) {
             String message = "Ошибка запроса удаления лайка" +
@@ -123,11 +540,288 @@ public class FilmDbStorage implements FilmStorage{
                     " Невозможно удалить лайк с фильма с id= " + filmId + " которого не существует.";
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
         }
+        if (writeBehind != null) {
+            enqueueLike(userId, filmId, false);
+            return;
+        }
         String sqlQuery = "DELETE FROM likes where person_id = ? AND film_id = ?";
         if (jdbcTemplate.update(sqlQuery, userId, filmId) == 0) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND,
                     "Лайка от пользователя с id=" + userId + " у фильма с id=" + filmId + " нет");
         }
+        jdbcTemplate.update("UPDATE film SET like_count = like_count - 1 WHERE film_id = ?", filmId);
+        AfterCommit.run(() -> {
+            popularity.removeLike(filmId);
+            likeIndexes.forEach(index -> index.removeLike(userId, filmId));
+            journal.append(EventJournal.LIKE_REMOVE, userId, filmId);
+            cache.invalidate(filmId);
+        });
+    }
+
+    /**
+     * Ждет записи всех лайков, принятых очередью отложенной записи до вызова.
+     */
+    public void flushLikes() throws InterruptedException {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (likeIndexRebuild != null) {
+            likeIndexRebuild.shutdownNow();
+        }
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+    }
+
+    private void enqueueLike(Integer userId, Integer filmId, boolean like) throws ResponseStatusException {
+        boolean accepted;
+        try {
+            accepted = writeBehind.offer(userId, filmId, like);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted) {
+            log.warn("Очередь лайков переполнена");
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Очередь лайков переполнена, повторите запрос позже");
+        }
+    }
+
+    @Override
+    public List<User> getLikes(Integer filmId, Integer after, Integer limit) {
+        if (!dbContainsFilm(filmId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Фильма с id=" + filmId + " нет");
+        }
+        String sqlQuery = "SELECT person.* FROM likes JOIN person ON likes.person_id = person.person_id " +
+                "WHERE likes.film_id = ? AND likes.person_id > ? ORDER BY likes.person_id LIMIT ?";
+        return jdbcTemplate.query(sqlQuery, this::makeUser, filmId, after, limit);
+    }
+
+    @Override
+    public List<Film> getPopularFilms(Integer count, Integer genreId, Integer year) {
+        if (genreId != null) {
+            genres.getGenre(genreId);
+        }
+        return getFilmsByIds(popularity.getTop(count, genreId, year));
+    }
+
+    @Override
+    public List<Film> searchFilms(String query, Integer count) {
+        return getFilmsByIds(search.search(query, count));
+    }
+
+    @Override
+    public List<Film> getSimilarFilms(Integer filmId, Integer count) {
+        if (!dbContainsFilm(filmId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Фильма с id=" + filmId + " нет");
+        }
+        return getFilmsByIds(similarity.getSimilar(filmId, count));
+    }
+
+    @Override
+    public List<Film> getRecommendedFilms(Integer userId, Integer count) {
+        if (!dbContainsUser(userId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id=" + userId + " нет");
+        }
+        return getFilmsByIds(similarity.recommend(userId, count));
+    }
+
+    @Override
+    public CommonFilms getCommonFilms(Integer userId, Integer otherId) {
+        for (Integer id : List.of(userId, otherId)) {
+            if (!dbContainsUser(id)) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id=" + id + " нет");
+            }
+        }
+        LikedFilmsIndex.Intersection common = likedFilms.intersect(userId, otherId);
+        List<Integer> ids = new ArrayList<>(common.getFilmIds().length);
+        for (int filmId : common.getFilmIds()) {
+            ids.add(filmId);
+        }
+        return new CommonFilms(getFilmsByIds(ids), common.getJaccard());
+    }
+
+    @Override
+    public List<Film> getMostLikedFilms(Integer count, Integer genreId, Integer year) {
+        if (genreId != null) {
+            genres.getGenre(genreId);
+        }
+        StringBuilder sqlQuery = new StringBuilder("SELECT film.* FROM film WHERE TRUE");
+        MapSqlParameterSource params = new MapSqlParameterSource("count", count);
+        if (genreId != null) {
+            sqlQuery.append(" AND EXISTS (SELECT 1 FROM genre_films AS gf WHERE gf.film_id = film.film_id" +
+                    " AND gf.genre_id = :genreId)");
+            params.addValue("genreId", genreId);
+        }
+        if (year != null) {
+            sqlQuery.append(" AND film.release_date >= :from AND film.release_date < :to");
+            params.addValue("from", LocalDate.of(year, 1, 1)).addValue("to", LocalDate.of(year + 1, 1, 1));
+        }
+        sqlQuery.append(" ORDER BY film.like_count DESC, film.film_id LIMIT :count");
+        return hydrate(namedJdbcTemplate.query(sqlQuery.toString(), params, this::makeFilm));
+    }
+
+    /**
+     * Возвращает фильмы в порядке переданных id. Фильмы из кэша не перечитываются,
+     * остальные загружаются одной пачкой и кладутся в кэш.
+     */
+    private List<Film> getFilmsByIds(List<Integer> ids) {
+        Map<Integer, Film> filmsById = new HashMap<>();
+        List<Integer> missingIds = new ArrayList<>();
+        Map<Integer, Long> versions = new HashMap<>();
+        for (Integer id : ids) {
+            Film cached = cache.get(id);
+            if (cached != null) {
+                filmsById.put(id, cached);
+            } else {
+                missingIds.add(id);
+                versions.put(id, cache.version(id));
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            String sqlQuery = "SELECT film.* FROM film WHERE film.film_id IN (:ids)";
+            List<Film> loaded = hydrate(namedJdbcTemplate.query(sqlQuery,
+                    new MapSqlParameterSource("ids", missingIds), this::makeFilm));
+            loaded.forEach(film -> {
+                cache.put(film, versions.get(film.getId()));
+                filmsById.put(film.getId(), film);
+            });
+        }
+        List<Film> films = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Film film = filmsById.get(id);
+            if (film != null) {
+                films.add(film);
+            }
+        }
+        return films;
+    }
+
+    /**
+     * batch-вставка не возвращает сгенерированные ключи, поэтому id забираются вторым запросом
+     * по уникальному индексу fingerprint.
+     */
+    private void insertBatch(List<Film> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        Map<String, Film> byFingerprint = new HashMap<>();
+        for (Film film : batch) {
+            String fingerprint = film.fingerprint();
+            byFingerprint.put(fingerprint, film);
+            rows.add(new Object[]{film.getName(), film.getDescription(), film.getReleaseDate(), film.getDuration(),
+                    film.getMpa().getId(), fingerprint});
+        }
+        jdbcTemplate.batchUpdate(FILM_INSERT, rows);
+        String sqlQuery = "SELECT film_id, fingerprint FROM film WHERE fingerprint IN (:fingerprints)";
+        namedJdbcTemplate.query(sqlQuery, new MapSqlParameterSource("fingerprints", byFingerprint.keySet()),
+                (RowCallbackHandler) rs -> byFingerprint.get(rs.getString("fingerprint")).setId(rs.getInt("film_id")));
+        addGenres(batch);
+    }
+
+    private int[] insertLikes(List<Like> likes) {
+        List<Object[]> rows = new ArrayList<>(likes.size());
+        likes.forEach(like -> rows.add(new Object[]{like.getUserId(), like.getFilmId(), like.getUserId(),
+                like.getFilmId()}));
+        return rows.isEmpty() ? new int[0] : jdbcTemplate.batchUpdate(LIKE_INSERT, rows);
+    }
+
+    private int[] deleteLikes(List<Like> likes) {
+        List<Object[]> rows = new ArrayList<>(likes.size());
+        likes.forEach(like -> rows.add(new Object[]{like.getUserId(), like.getFilmId()}));
+        return rows.isEmpty() ? new int[0]
+                : jdbcTemplate.batchUpdate("DELETE FROM likes WHERE person_id = ? AND film_id = ?", rows);
+    }
+
+    /**
+     * Добавляет к deltaByFilm изменение кол-ва лайков по фильмам: sign за каждую реально измененную строку.
+     */
+    private void countChanges(Map<Integer, Integer> deltaByFilm, List<Like> likes, int[] changed, int sign) {
+        for (int i = 0; i < likes.size(); i++) {
+            if (changed[i] > 0) {
+                deltaByFilm.merge(likes.get(i).getFilmId(), sign, Integer::sum);
+            }
+        }
+    }
+
+    private void updateLikeCounts(Map<Integer, Integer> deltaByFilm) {
+        List<Object[]> rows = new ArrayList<>(deltaByFilm.size());
+        deltaByFilm.forEach((filmId, delta) -> {
+            if (delta != 0) {
+                rows.add(new Object[]{delta, filmId});
+            }
+        });
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE film SET like_count = like_count + ? WHERE film_id = ?", rows);
+        }
+    }
+
+    private void publishLikeCounts(Map<Integer, Integer> deltaByFilm) {
+        AfterCommit.run(() -> deltaByFilm.forEach((filmId, delta) -> {
+            popularity.addLikes(filmId, delta);
+            cache.invalidate(filmId);
+        }));
+    }
+
+    /**
+     * Запись пачки из очереди отложенной записи: лайки и удаления в одной транзакции.
+     */
+    private void writeLikes(List<Like> likes, List<Like> unlikes) {
+        Map<Integer, Integer> deltaByFilm = new HashMap<>();
+        int[][] changed = new int[2][];
+        transactionTemplate.executeWithoutResult(status -> {
+            changed[0] = insertLikes(likes);
+            changed[1] = deleteLikes(unlikes);
+            countChanges(deltaByFilm, likes, changed[0], 1);
+            countChanges(deltaByFilm, unlikes, changed[1], -1);
+            updateLikeCounts(deltaByFilm);
+        });
+        publishLikeCounts(deltaByFilm);
+        indexLikes(likes, changed[0], true);
+        indexLikes(unlikes, changed[1], false);
+    }
+
+    /**
+     * Передает в индексы лайков и журнал событий только реально измененные строки likes.
+     */
+    private void indexLikes(List<Like> likes, int[] changed, boolean like) {
+        AfterCommit.run(() -> {
+            for (int i = 0; i < likes.size(); i++) {
+                if (changed[i] == 0) {
+                    continue;
+                }
+                int userId = likes.get(i).getUserId();
+                int filmId = likes.get(i).getFilmId();
+                for (LikeIndex index : likeIndexes) {
+                    if (like) {
+                        index.addLike(userId, filmId);
+                    } else {
+                        index.removeLike(userId, filmId);
+                    }
+                }
+                journal.append(like ? EventJournal.LIKE_ADD : EventJournal.LIKE_REMOVE, userId, filmId);
+            }
+        });
+    }
+
+    private static List<Integer> genreIds(Film film) {
+        List<Integer> ids = new ArrayList<>(film.getGenres().size());
+        film.getGenres().forEach(genre -> ids.add(genre.getId()));
+        return ids;
+    }
+
+    private void addGenres(List<Film> films) {
+        List<Object[]> rows = new ArrayList<>();
+        films.forEach(film -> film.getGenres().forEach(genre -> rows.add(new Object[]{film.getId(), genre.getId()})));
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(GENRE_INSERT, rows);
+        }
     }
 
     private Film makeFilm(ResultSet resultSet, int rowSum) throws SQLException {
@@ -137,19 +831,39 @@ public class FilmDbStorage implements FilmStorage{
                 .description(resultSet.getString("description"))
                 .releaseDate(resultSet.getDate("release_date").toLocalDate())
                 .duration(resultSet.getInt("duration"))
-                .mpa(new Mpa(resultSet.getInt("mpa"), resultSet.getString("mpa_name")))
+                .mpa(mpas.getMpa(resultSet.getInt("mpa")))
+                .likesCount(resultSet.getInt("like_count"))
                 .build();
-        String sqlQuery = "SELECT person.* FROM likes JOIN person ON likes.person_id=person.person_id WHERE likes.film_id=?";
-        film.getLikes().addAll(jdbcTemplate.query(sqlQuery, this::makeUser, film.getId()));
-        film.getGenres().addAll(findGenresByFilmId(film.getId()));
         return film;
     }
 
-    private int addFilmInfo(Film film) {
-        SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(jdbcTemplate)
-                .withTableName("film")
-                .usingGeneratedKeyColumns("film_id");
-        return simpleJdbcInsert.executeAndReturnKey(film.toMap()).intValue();
+    /**
+     * Загружает жанры для переданных фильмов одним запросом, независимо от их количества, и раскладывает их
+     * по фильмам в памяти по film_id. Лайки не загружаются: кол-во берется из film.like_count, а сами лайки
+     * отдаются постранично через getLikes.
+     */
+    private List<Film> hydrate(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
+        Map<Integer, Film> filmsById = toMap(films);
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", filmsById.keySet());
+        namedJdbcTemplate.query(GENRES_QUERY + " WHERE gf.film_id IN (:ids)", params,
+                (RowCallbackHandler) rs -> addGenre(filmsById, rs));
+        return films;
+    }
+
+    private Map<Integer, Film> toMap(List<Film> films) {
+        Map<Integer, Film> filmsById = new HashMap<>();
+        films.forEach(film -> filmsById.put(film.getId(), film));
+        return filmsById;
+    }
+
+    private void addGenre(Map<Integer, Film> filmsById, ResultSet resultSet) throws SQLException {
+        Film film = filmsById.get(resultSet.getInt("film_id"));
+        if (film != null) {
+            film.getGenres().add(genres.getGenre(resultSet.getInt("genre_id")));
+        }
     }
 
     private User makeUser(ResultSet resultSet, int rowNum) throws SQLException {
@@ -162,45 +876,23 @@ public class FilmDbStorage implements FilmStorage{
                 .build();
     }
 
-    private Set<Genre> findGenresByFilmId(Integer id) {
-        String sqlQuery = "SELECT g.genre_id, g.genre_name FROM film AS f JOIN genre_films AS gf ON f.film_id=gf.film_id JOIN genre AS g ON gf.genre_id=g.genre_id WHERE f.film_id = ?";
-        return new TreeSet<>(jdbcTemplate.query(sqlQuery, this::makeGenre, id));
-    }
-
-    private boolean dbContainsFilm(Film film) {
-        String sqlQuery = "SELECT f.*, mpa.mpa_name FROM FILM AS f JOIN mpa ON f.mpa = mpa.mpa_id " +
-                "WHERE f.name = ? AND  f.description = ? AND f.release_date = ? AND f.duration = ? AND f.mpa = ?";
-        try {
-            jdbcTemplate.queryForObject(sqlQuery, this::makeFilm, film.getName(), film.getDescription(),
-                    film.getReleaseDate(), film.getDuration(), film.getMpa().getId());
-            return true;
-        } catch (EmptyResultDataAccessException e) {
-            return false;
-        }
-    }
-
     private boolean dbContainsUser(Integer userId) {
-        String sqlQuery = "SELECT * FROM person WHERE person_id = ?";
-        try {
-            jdbcTemplate.queryForObject(sqlQuery, this::makeUser, userId);
-            return true;
-        } catch (EmptyResultDataAccessException e) {
-            return false;
-        }
+        return users.contains(userId);
     }
 
+    /**
+     * Проверяет существование фильма по индексу id. В базу идет только при промахе индекса:
+     * фильм мог быть добавлен другим узлом.
+     */
     private boolean dbContainsFilm(Integer filmId) {
-        String sqlQuery = "SELECT f.*, mpa.mpa_name FROM FILM AS f JOIN mpa ON f.mpa = mpa.mpa_id " +
-                "WHERE f.film_id = ?";
-        try {
-            jdbcTemplate.queryForObject(sqlQuery, this::makeFilm, filmId);
+        if (filmIds.contains(filmId)) {
             return true;
-        } catch (EmptyResultDataAccessException e) {
-            return false;
         }
-    }
-
-    private Genre makeGenre(ResultSet resultSet, int rowSum) throws SQLException {
-        return new Genre(resultSet.getInt("genre_id"), resultSet.getString("genre_name"));
+        String sqlQuery = "SELECT EXISTS (SELECT 1 FROM film WHERE film_id = ?)";
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(sqlQuery, Boolean.class, filmId))) {
+            filmIds.add(filmId);
+            return true;
+        }
+        return false;
     }
 }
@@ -0,0 +1,650 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.server.ResponseStatusException;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.CommonFilms;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.IdSet;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.IdIndex;
+import ru.yandex.practicum.filmorate.storage.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
+import ru.yandex.practicum.filmorate.storage.StripedIntMap;
+import ru.yandex.practicum.filmorate.storage.WriteAheadLog;
+import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
+import ru.yandex.practicum.filmorate.storage.user.LikedFilmsIndex;
+import ru.yandex.practicum.filmorate.storage.user.UserMemoryStorage;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+/**
+ * Хранилище фильмов целиком в памяти, без базы данных. Включается filmorate.storage.engine=memory.
+ * Фильмы лежат в StripedIntMap по id, лайки фильма - в его записи. Изменение фильма и его лайков
+ * дописывается в журнал упреждающей записи, применяется и передается в индексы под блокировкой полосы
+ * id фильма, поэтому лайки разным фильмам ставятся параллельно. Отпечатки фильмов для поиска дублей -
+ * в отдельной ConcurrentHashMap: новый фильм занимает отпечаток с отметкой PENDING и только потом получает id,
+ * поэтому отклоненный дубль, как и в базе, не расходует id. Рейтинг, поиск и индексы лайков те же, что у FilmDbStorage,
+ * но заполняются из памяти и не пересобираются по расписанию: мимо хранилища лайки не пишутся.
+ */
+@Repository("FilmMemoryStorage")
+@ConditionalOnProperty(name = "filmorate.storage.engine", havingValue = "memory")
+@Slf4j
+public class FilmMemoryStorage implements FilmStorage, Reloadable {
+    private static final int FILM_PUT = 1;
+    private static final int LIKE_ADD = 2;
+    private static final int LIKE_REMOVE = 3;
+    private static final Integer PENDING = -1;
+    private static final String DUPLICATE_FILM = "Такой фильм уже есть";
+    private static final String DUPLICATE_LIKE = "Лайк уже есть";
+    private final StripedIntMap<FilmEntry> films;
+    private final IdIndex filmIds = new IdIndex();
+    private final Map<String, Integer> fingerprints = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final GenreStorage genres;
+    private final MpaStorage mpas;
+    private final UserMemoryStorage users;
+    private final FilmPopularityIndex popularity;
+    private final FilmSimilarityIndex similarity;
+    private final FilmSearchIndex search;
+    private final LikedFilmsIndex likedFilms;
+    private final List<LikeIndex> likeIndexes;
+    private final WriteAheadLog wal;
+    private final ScheduledExecutorService checkpoints;
+    private final long checkpointIntervalMillis;
+    private final AtomicBoolean recovered = new AtomicBoolean();
+
+    @Autowired
+    public FilmMemoryStorage(GenreStorage genres, MpaStorage mpas, UserMemoryStorage users,
+                             FilmPopularityIndex popularity, FilmSimilarityIndex similarity,
+                             List<LikeIndex> likeIndexes, FilmSearchIndex search, LikedFilmsIndex likedFilms,
+                             @Value("${filmorate.storage.memory.path:./db/memory}") String path,
+                             @Value("${filmorate.storage.memory.fsync:false}") boolean fsync,
+                             @Value("${filmorate.storage.memory.stripes:64}") int stripes,
+                             @Value("${filmorate.storage.memory.checkpoint-interval:1m}") Duration checkpointInterval) {
+        this.genres = genres;
+        this.mpas = mpas;
+        this.users = users;
+        this.popularity = popularity;
+        this.similarity = similarity;
+        this.likeIndexes = likeIndexes;
+        this.search = search;
+        this.likedFilms = likedFilms;
+        this.films = new StripedIntMap<>(stripes);
+        this.wal = new WriteAheadLog(Paths.get(path), "films", fsync);
+        this.checkpoints = checkpointInterval.isZero() ? null
+                : Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "film-checkpoint");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.checkpointIntervalMillis = checkpointInterval.toMillis();
+    }
+
+    /**
+     * Восстанавливает фильмы из контрольной точки и журнала и загружает по ним рейтинг, поиск и индексы лайков.
+     */
+    @Override
+    @PostConstruct
+    public void reload() {
+        search.clear();
+        wal.recover(this::reset, this::readCheckpoint, this::replay);
+        Map<Integer, Integer> likesByFilm = new HashMap<>();
+        long[] likes = new long[1024];
+        int size = 0;
+        for (int id = filmIds.next(0); id >= 0; id = filmIds.next(id)) {
+            FilmEntry entry = films.get(id);
+            fingerprints.put(entry.fingerprint, id);
+            nextId.accumulateAndGet(id + 1, Math::max);
+            search.put(id, entry.name, entry.description);
+            likesByFilm.put(id, entry.likes.size());
+            for (int userId : entry.likes.toArray()) {
+                if (size == likes.length) {
+                    likes = Arrays.copyOf(likes, size * 2);
+                }
+                likes[size++] = (long) userId << 32 | id;
+            }
+        }
+        popularity.load(likesByFilm);
+        likesByFilm.keySet().forEach(id -> {
+            FilmEntry entry = films.get(id);
+            popularity.putFilm(id, entry.releaseDate.getYear(), genreIds(entry.genreIds));
+        });
+        Arrays.sort(likes, 0, size);
+        int[] userIds = new int[size];
+        int[] likedIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            userIds[i] = (int) (likes[i] >>> 32);
+            likedIds[i] = (int) likes[i];
+        }
+        likeIndexes.forEach(LikeIndex::beginLoad);
+        int count = size;
+        likeIndexes.forEach(index -> index.load(userIds, likedIds, count));
+        log.info("Фильмы восстановлены из журнала, фильмов: " + filmIds.size() + ", лайков: " + size);
+        scheduleCheckpoints();
+    }
+
+    /**
+     * Удаляет все фильмы вместе с журналом и контрольной точкой, id снова начинаются с 1.
+     */
+    public void clear() {
+        wal.clear(this::reset);
+        reload();
+    }
+
+    /**
+     * Запускает периодическую запись контрольных точек после первого восстановления, один раз: точка,
+     * записанная до него, заменила бы журнал пустым состоянием. По той же причине close() без восстановления
+     * точку не пишет.
+     */
+    private void scheduleCheckpoints() {
+        if (recovered.compareAndSet(false, true) && checkpoints != null) {
+            checkpoints.scheduleWithFixedDelay(this::checkpoint, checkpointIntervalMillis, checkpointIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Сбрасывает состояние перед восстановлением. Вызывается журналом под блокировкой контрольных точек.
+     */
+    private void reset() {
+        films.clear();
+        filmIds.clear();
+        fingerprints.clear();
+        nextId.set(1);
+    }
+
+    /**
+     * Записывает контрольную точку журнала, после чего поколения журнала до нее удаляются.
+     */
+    public void checkpoint() {
+        try {
+            wal.checkpoint(out -> {
+                out.writeInt(nextId.get());
+                films.forEach((id, entry) -> {
+                    try {
+                        out.writeBoolean(true);
+                        writeFilm(out, id, entry);
+                        WriteAheadLog.writeIds(out, entry.likes.toArray());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                out.writeBoolean(false);
+            });
+        } catch (RuntimeException e) {
+            // исключение остановило бы периодическую запись контрольных точек
+            log.error("Не удалось записать контрольную точку фильмов", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (checkpoints != null) {
+            checkpoints.shutdownNow();
+        }
+        if (recovered.get()) {
+            checkpoint();
+        }
+        wal.close();
+    }
+
+    @Override
+    public void add(Film film) throws ResponseStatusException {
+        FilmEntry entry = newEntry(film);
+        if (fingerprints.putIfAbsent(entry.fingerprint, PENDING) != null) {
+            log.warn(DUPLICATE_FILM);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, DUPLICATE_FILM);
+        }
+        int filmId = nextId.getAndIncrement();
+        fingerprints.put(entry.fingerprint, filmId);
+        Lock lock = films.lock(filmId).writeLock();
+        lock.lock();
+        try {
+            wal.append(FILM_PUT, out -> writeFilm(out, filmId, entry));
+            films.putLocked(filmId, entry);
+            filmIds.add(filmId);
+            popularity.putFilm(filmId, entry.releaseDate.getYear(), genreIds(entry.genreIds));
+            search.put(filmId, entry.name, entry.description);
+        } catch (RuntimeException e) {
+            fingerprints.remove(entry.fingerprint, filmId);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        film.setId(filmId);
+    }
+
+    /**
+     * Добавляет фильмы по одному: в памяти пачка не экономит ни запросов, ни транзакций.
+     */
+    @Override
+    public List<String> addFilms(List<Film> films) {
+        List<String> errors = new ArrayList<>(Collections.nCopies(films.size(), null));
+        for (int i = 0; i < films.size(); i++) {
+            try {
+                add(films.get(i));
+            } catch (ResponseStatusException e) {
+                errors.set(i, e.getReason());
+            }
+        }
+        return errors;
+    }
+
+    @Override
+    public Film update(Film film) {
+        if (film.getId() == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Фильма с id=" + film.getId() + " нет");
+        }
+        int filmId = film.getId();
+        FilmEntry updated = newEntry(film);
+        Lock lock = films.lock(filmId).writeLock();
+        lock.lock();
+        try {
+            FilmEntry entry = films.getLocked(filmId);
+            if (entry == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Фильма с id=" + filmId + " нет");
+            }
+            boolean claimed = false;
+            if (!updated.fingerprint.equals(entry.fingerprint)) {
+                Integer owner = fingerprints.putIfAbsent(updated.fingerprint, filmId);
+                if (owner != null && owner != filmId) {
+                    log.warn(DUPLICATE_FILM);
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, DUPLICATE_FILM);
+                }
+                claimed = owner == null;
+            }
+            updated.likes = entry.likes;
+            try {
+                wal.append(FILM_PUT, out -> writeFilm(out, filmId, updated));
+            } catch (RuntimeException e) {
+                if (claimed) {
+                    fingerprints.remove(updated.fingerprint, filmId);
+                }
+                throw e;
+            }
+            if (claimed) {
+                fingerprints.remove(entry.fingerprint, filmId);
+            }
+            films.putLocked(filmId, updated);
+            search.put(filmId, updated.name, updated.description);
+            popularity.putFilm(filmId, updated.releaseDate.getYear(), genreIds(updated.genreIds));
+        } finally {
+            lock.unlock();
+        }
+        return getFilm(filmId);
+    }
+
+    @Override
+    public List<Film> getFilmsList() {
+        List<Film> list = new ArrayList<>(filmIds.size());
+        for (int id = filmIds.next(0); id >= 0; id = filmIds.next(id)) {
+            list.add(readFilm(id));
+        }
+        return list;
+    }
+
+    @Override
+    public List<Film> getFilmsPage(Integer after, Integer limit) {
+        List<Film> page = new ArrayList<>(Math.min(limit, filmIds.size()));
+        for (int id = filmIds.next(after); id >= 0 && page.size() < limit; id = filmIds.next(id)) {
+            page.add(readFilm(id));
+        }
+        return page;
+    }
+
+    @Override
+    public void exportFilms(Consumer<Film> consumer) {
+        for (int id = filmIds.next(0); id >= 0; id = filmIds.next(id)) {
+            consumer.accept(readFilm(id));
+        }
+    }
+
+    @Override
+    public Film getFilm(Integer id) {
+        Film film = id == null ? null : readFilm(id);
+        if (film == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Фильма с id=" + id + " нет");
+        }
+        return film;
+    }
+
+    @Override
+    public void addLike(Integer userId, Integer filmId) throws ResponseStatusException {
+        if (!users.contains(userId)) {
+            String message = "Ошибка запроса добавления лайка фильму." +
+                    " Невозможно поставить лайк от пользователя с id= " + userId + " которого не существует.";
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        if (!filmIds.contains(filmId)) {
+            String message = "Ошибка запроса добавления лайка фильму." +
+                    " Невозможно поставить лайк фильму с id= " + filmId + " которого не существует.";
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        if (!like(userId, filmId)) {
+            String message = "Ошибка запроса добавления лайка фильму." +
+                    " Попытка полькователем поставить лайк дважды одному фильму.";
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, message);
+        }
+    }
+
+    @Override
+    public BatchResult addLikes(List<Like> likes) {
+        BatchResult result = new BatchResult();
+        for (int i = 0; i < likes.size(); i++) {
+            Like like = likes.get(i);
+            if (like == null || like.getUserId() == null || like.getFilmId() == null) {
+                result.failure(i, "Не указан id пользователя или фильма");
+            } else if (!users.contains(like.getUserId())) {
+                result.failure(i, "Пользователя с id=" + like.getUserId() + " нет");
+            } else if (!filmIds.contains(like.getFilmId())) {
+                result.failure(i, "Фильма с id=" + like.getFilmId() + " нет");
+            } else if (like(like.getUserId(), like.getFilmId())) {
+                result.success(i, null);
+            } else {
+                result.skip(i, DUPLICATE_LIKE);
+            }
+        }
+        return result.sorted();
+    }
+
+    @Override
+    public void deleteLike(Integer userId, Integer filmId) {
+        if (!users.contains(userId)) {
+            String message = "Ошибка запроса удаления лайка" +
+                    " Невозможно удалить лайк от пользователя с id= " + userId + " которого не существует.";
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        if (!filmIds.contains(filmId)) {
+            String message = "Ошибка запроса удаления лайка" +
+                    " Невозможно удалить лайк с фильма с id= " + filmId + " которого не существует.";
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        Lock lock = films.lock(filmId).writeLock();
+        lock.lock();
+        try {
+            FilmEntry entry = films.getLocked(filmId);
+            if (!entry.likes.contains(userId)) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        "Лайка от пользователя с id=" + userId + " у фильма с id=" + filmId + " нет");
+            }
+            wal.append(LIKE_REMOVE, out -> writeLike(out, filmId, userId));
+            entry.likes.remove(userId);
+            popularity.removeLike(filmId);
+            likeIndexes.forEach(index -> index.removeLike(userId, filmId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<User> getLikes(Integer filmId, Integer after, Integer limit) {
+        if (!filmIds.contains(filmId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Фильма с id=" + filmId + " нет");
+        }
+        int[] likes;
+        Lock lock = films.lock(filmId).readLock();
+        lock.lock();
+        try {
+            likes = films.getLocked(filmId).likes.toArray();
+        } finally {
+            lock.unlock();
+        }
+        int from = Arrays.binarySearch(likes, after);
+        from = from >= 0 ? from + 1 : -from - 1;
+        int to = (int) Math.min(likes.length, (long) from + limit);
+        return users.getUsers(Arrays.copyOfRange(likes, from, Math.max(from, to)));
+    }
+
+    @Override
+    public List<Film> getPopularFilms(Integer count, Integer genreId, Integer year) {
+        if (genreId != null) {
+            genres.getGenre(genreId);
+        }
+        return getFilmsByIds(popularity.getTop(count, genreId, year));
+    }
+
+    /**
+     * Кол-во лайков в памяти всегда точное, поэтому отдельного пути мимо рейтинга нет.
+     */
+    @Override
+    public List<Film> getMostLikedFilms(Integer count, Integer genreId, Integer year) {
+        return getPopularFilms(count, genreId, year);
+    }
+
+    @Override
+    public List<Film> searchFilms(String query, Integer count) {
+        return getFilmsByIds(search.search(query, count));
+    }
+
+    @Override
+    public List<Film> getSimilarFilms(Integer filmId, Integer count) {
+        if (!filmIds.contains(filmId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Фильма с id=" + filmId + " нет");
+        }
+        return getFilmsByIds(similarity.getSimilar(filmId, count));
+    }
+
+    @Override
+    public List<Film> getRecommendedFilms(Integer userId, Integer count) {
+        if (!users.contains(userId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id=" + userId + " нет");
+        }
+        return getFilmsByIds(similarity.recommend(userId, count));
+    }
+
+    @Override
+    public CommonFilms getCommonFilms(Integer userId, Integer otherId) {
+        for (Integer id : List.of(userId, otherId)) {
+            if (!users.contains(id)) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id=" + id + " нет");
+            }
+        }
+        LikedFilmsIndex.Intersection common = likedFilms.intersect(userId, otherId);
+        List<Integer> ids = new ArrayList<>(common.getFilmIds().length);
+        for (int filmId : common.getFilmIds()) {
+            ids.add(filmId);
+        }
+        return new CommonFilms(getFilmsByIds(ids), common.getJaccard());
+    }
+
+    /**
+     * Ставит лайк существующему фильму. Возвращает false, если лайк уже есть.
+     */
+    private boolean like(int userId, int filmId) {
+        Lock lock = films.lock(filmId).writeLock();
+        lock.lock();
+        try {
+            FilmEntry entry = films.getLocked(filmId);
+            if (entry.likes.contains(userId)) {
+                return false;
+            }
+            wal.append(LIKE_ADD, out -> writeLike(out, filmId, userId));
+            entry.likes.add(userId);
+            popularity.addLike(filmId);
+            likeIndexes.forEach(index -> index.addLike(userId, filmId));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Проверяет рейтинг и жанры фильма по справочникам и готовит запись для сохранения.
+     */
+    private FilmEntry newEntry(Film film) throws ResponseStatusException {
+        mpas.getMpa(film.getMpa().getId());
+        FilmEntry entry = new FilmEntry();
+        entry.name = film.getName();
+        entry.description = film.getDescription();
+        entry.releaseDate = film.getReleaseDate();
+        entry.duration = film.getDuration();
+        entry.mpaId = film.getMpa().getId();
+        entry.genreIds = new int[film.getGenres().size()];
+        int i = 0;
+        for (Genre genre : film.getGenres()) {
+            entry.genreIds[i++] = genres.getGenre(genre.getId()).getId();
+        }
+        Arrays.sort(entry.genreIds);
+        entry.fingerprint = film.fingerprint();
+        return entry;
+    }
+
+    /**
+     * Копия фильма с id вместе с жанрами и лайками или null, если его нет.
+     */
+    private Film readFilm(int id) {
+        Lock lock = films.lock(id).readLock();
+        lock.lock();
+        try {
+            FilmEntry entry = films.getLocked(id);
+            if (entry == null) {
+                return null;
+            }
+            Film film = Film.builder()
+                    .id(id)
+                    .name(entry.name)
+                    .description(entry.description)
+                    .releaseDate(entry.releaseDate)
+                    .duration(entry.duration)
+                    .mpa(mpas.getMpa(entry.mpaId))
+                    .likesCount(entry.likes.size())
+                    .build();
+            for (int genreId : entry.genreIds) {
+                film.getGenres().add(genres.getGenre(genreId));
+            }
+            return film;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Фильмы в порядке переданных id. Несуществующие id пропускаются.
+     */
+    private List<Film> getFilmsByIds(List<Integer> ids) {
+        List<Film> list = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Film film = readFilm(id);
+            if (film != null) {
+                list.add(film);
+            }
+        }
+        return list;
+    }
+
+    private void readCheckpoint(DataInput in) throws IOException {
+        nextId.set(in.readInt());
+        while (in.readBoolean()) {
+            int id = in.readInt();
+            FilmEntry entry = readEntry(in);
+            for (int userId : WriteAheadLog.readIds(in)) {
+                entry.likes.add(userId);
+            }
+            films.put(id, entry);
+            filmIds.add(id);
+        }
+    }
+
+    /**
+     * Применяет запись журнала. Повторное применение уже учтенной в контрольной точке записи ничего не меняет.
+     */
+    private void replay(int type, DataInput in) throws IOException {
+        if (type == FILM_PUT) {
+            int id = in.readInt();
+            FilmEntry entry = readEntry(in);
+            FilmEntry previous = films.get(id);
+            if (previous != null) {
+                entry.likes = previous.likes;
+            }
+            films.put(id, entry);
+            filmIds.add(id);
+        } else if (type == LIKE_ADD || type == LIKE_REMOVE) {
+            int filmId = in.readInt();
+            int userId = in.readInt();
+            FilmEntry entry = films.get(filmId);
+            if (entry != null && type == LIKE_ADD) {
+                entry.likes.add(userId);
+            } else if (entry != null) {
+                entry.likes.remove(userId);
+            }
+        } else {
+            throw new IllegalStateException("Неизвестный тип записи журнала фильмов: " + type);
+        }
+    }
+
+    private static void writeFilm(DataOutput out, int id, FilmEntry entry) throws IOException {
+        out.writeInt(id);
+        WriteAheadLog.writeString(out, entry.name);
+        WriteAheadLog.writeString(out, entry.description);
+        WriteAheadLog.writeDate(out, entry.releaseDate);
+        WriteAheadLog.writeInteger(out, entry.duration);
+        out.writeInt(entry.mpaId);
+        WriteAheadLog.writeIds(out, entry.genreIds);
+        WriteAheadLog.writeString(out, entry.fingerprint);
+    }
+
+    private static FilmEntry readEntry(DataInput in) throws IOException {
+        FilmEntry entry = new FilmEntry();
+        entry.name = WriteAheadLog.readString(in);
+        entry.description = WriteAheadLog.readString(in);
+        entry.releaseDate = WriteAheadLog.readDate(in);
+        entry.duration = WriteAheadLog.readInteger(in);
+        entry.mpaId = in.readInt();
+        entry.genreIds = WriteAheadLog.readIds(in);
+        entry.fingerprint = WriteAheadLog.readString(in);
+        return entry;
+    }
+
+    private static void writeLike(DataOutput out, int filmId, int userId) throws IOException {
+        out.writeInt(filmId);
+        out.writeInt(userId);
+    }
+
+    private static List<Integer> genreIds(int[] ids) {
+        List<Integer> list = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    /**
+     * Изменяемая запись фильма. Читается и меняется только под блокировкой полосы его id.
+     */
+    private static class FilmEntry {
+        private String name;
+        private String description;
+        private LocalDate releaseDate;
+        private Integer duration;
+        private int mpaId;
+        private int[] genreIds;
+        private String fingerprint;
+        private IdSet likes = new IdSet();
+    }
+}
@@ -0,0 +1,166 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Рейтинг фильмов по кол-ву лайков. Обновляется за O(log N) на каждый лайк,
+ * первые N фильмов читаются без сортировки всего каталога.
+ * Порядок: больше лайков раньше, при равенстве - меньший id раньше.
+ * Кроме общего рейтинга, ведутся такие же рейтинги по каждому жанру и по каждому году выхода:
+ * лайк обновляет общий рейтинг, рейтинг года и рейтинги жанров фильма, поэтому первые N фильмов жанра
+ * или года читаются так же, как общие. При фильтре сразу по жанру и году обходится меньший из двух
+ * рейтингов с проверкой второго условия.
+ */
+@Component
+public class FilmPopularityIndex {
+    private static final NavigableSet<Long> EMPTY = Collections.emptyNavigableSet();
+    private static final int[] NO_GENRES = new int[0];
+    private final Map<Integer, Integer> likesByFilm = new HashMap<>();
+    private final NavigableSet<Long> ranking = new TreeSet<>();
+    private final Map<Integer, Integer> yearByFilm = new HashMap<>();
+    private final Map<Integer, int[]> genresByFilm = new HashMap<>();
+    private final Map<Integer, NavigableSet<Long>> rankingByYear = new HashMap<>();
+    private final Map<Integer, NavigableSet<Long>> rankingByGenre = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public void load(Map<Integer, Integer> likesByFilm) {
+        lock.writeLock().lock();
+        try {
+            this.likesByFilm.clear();
+            ranking.clear();
+            yearByFilm.clear();
+            genresByFilm.clear();
+            rankingByYear.clear();
+            rankingByGenre.clear();
+            likesByFilm.forEach((filmId, likes) -> {
+                this.likesByFilm.put(filmId, likes);
+                ranking.add(key(filmId, likes));
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Добавляет фильм или меняет его год выхода и жанры: переносит его в рейтинги нового года и новых жанров.
+     */
+    public void putFilm(int filmId, int year, Collection<Integer> genreIds) {
+        lock.writeLock().lock();
+        try {
+            if (likesByFilm.putIfAbsent(filmId, 0) == null) {
+                ranking.add(key(filmId, 0));
+            }
+            long key = key(filmId, likesByFilm.get(filmId));
+            filterRankings(filmId).forEach(filtered -> filtered.remove(key));
+            int[] genres = genreIds.stream().mapToInt(Integer::intValue).distinct().toArray();
+            yearByFilm.put(filmId, year);
+            genresByFilm.put(filmId, genres);
+            filterRankings(filmId).forEach(filtered -> filtered.add(key));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addLike(int filmId) {
+        changeLikes(filmId, 1);
+    }
+
+    public void removeLike(int filmId) {
+        changeLikes(filmId, -1);
+    }
+
+    public void addLikes(int filmId, int count) {
+        changeLikes(filmId, count);
+    }
+
+    public List<Integer> getTop(int count) {
+        return getTop(count, null, null);
+    }
+
+    /**
+     * Первые count фильмов жанра genreId и года year, null - без фильтра.
+     */
+    public List<Integer> getTop(int count, Integer genreId, Integer year) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<Long> source = ranking;
+            boolean checkGenre = false;
+            boolean checkYear = false;
+            if (genreId != null) {
+                source = rankingByGenre.getOrDefault(genreId, EMPTY);
+            }
+            if (year != null) {
+                NavigableSet<Long> byYear = rankingByYear.getOrDefault(year, EMPTY);
+                if (genreId == null || byYear.size() < source.size()) {
+                    checkGenre = genreId != null;
+                    source = byYear;
+                } else {
+                    checkYear = true;
+                }
+            }
+            List<Integer> top = new ArrayList<>(Math.min(count, source.size()));
+            Iterator<Long> iterator = source.iterator();
+            while (top.size() < count && iterator.hasNext()) {
+                int filmId = filmId(iterator.next());
+                if (checkGenre && !hasGenre(filmId, genreId) || checkYear && !year.equals(yearByFilm.get(filmId))) {
+                    continue;
+                }
+                top.add(filmId);
+            }
+            return top;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void changeLikes(int filmId, int delta) {
+        lock.writeLock().lock();
+        try {
+            int likes = likesByFilm.getOrDefault(filmId, 0);
+            List<NavigableSet<Long>> filtered = filterRankings(filmId);
+            long oldKey = key(filmId, likes);
+            ranking.remove(oldKey);
+            filtered.forEach(rankingSet -> rankingSet.remove(oldKey));
+            likes = Math.max(0, likes + delta);
+            likesByFilm.put(filmId, likes);
+            long newKey = key(filmId, likes);
+            ranking.add(newKey);
+            filtered.forEach(rankingSet -> rankingSet.add(newKey));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<NavigableSet<Long>> filterRankings(int filmId) {
+        List<NavigableSet<Long>> rankings = new ArrayList<>();
+        Integer year = yearByFilm.get(filmId);
+        if (year != null) {
+            rankings.add(rankingByYear.computeIfAbsent(year, key -> new TreeSet<>()));
+        }
+        for (int genreId : genresByFilm.getOrDefault(filmId, NO_GENRES)) {
+            rankings.add(rankingByGenre.computeIfAbsent(genreId, key -> new TreeSet<>()));
+        }
+        return rankings;
+    }
+
+    private boolean hasGenre(int filmId, int genreId) {
+        for (int genre : genresByFilm.getOrDefault(filmId, NO_GENRES)) {
+            if (genre == genreId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long key(int filmId, int likes) {
+        return ((long) (Integer.MAX_VALUE - likes) << 32) | filmId;
+    }
+
+    private static int filmId(long key) {
+        return (int) key;
+    }
+}
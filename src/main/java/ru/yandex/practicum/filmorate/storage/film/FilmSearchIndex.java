@@ -0,0 +1,178 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.IntCounter;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Поиск фильмов по названию и описанию. Текст приводится к нижнему регистру и режется на слова
+ * по всему, что не буква и не цифра, каждое слово - на триграммы (слово короче трех символов - целиком),
+ * поэтому находятся и части слов: "матр" найдет "Матрица". Для каждой триграммы хранится список id фильмов
+ * по возрастанию в массиве int, отдельно для названий и описаний.
+ * Релевантность - сумма по различным триграммам запроса: 2, если триграмма есть в названии, и 1,
+ * если в описании. Фильм попадает в выдачу, если в его названии или описании есть не меньше половины
+ * различных триграмм запроса, - порог не зависит от того, в каком поле нашлось совпадение.
+ */
+@Component
+public class FilmSearchIndex {
+    private static final int GRAM = 3;
+    private static final int NAME_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    private final Map<String, Postings> names = new HashMap<>();
+    private final Map<String, Postings> descriptions = new HashMap<>();
+    private final Map<Integer, String[][]> gramsByFilm = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            names.clear();
+            descriptions.clear();
+            gramsByFilm.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Индексирует фильм или заменяет его прежние название и описание.
+     */
+    public void put(int filmId, String name, String description) {
+        String[] nameGrams = grams(name).toArray(new String[0]);
+        String[] descriptionGrams = grams(description).toArray(new String[0]);
+        lock.writeLock().lock();
+        try {
+            String[][] old = gramsByFilm.put(filmId, new String[][]{nameGrams, descriptionGrams});
+            if (old != null) {
+                remove(names, old[0], filmId);
+                remove(descriptions, old[1], filmId);
+            }
+            for (String gram : nameGrams) {
+                names.computeIfAbsent(gram, key -> new Postings()).add(filmId);
+            }
+            for (String gram : descriptionGrams) {
+                descriptions.computeIfAbsent(gram, key -> new Postings()).add(filmId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Первые count фильмов по убыванию релевантности, при равенстве - по возрастанию id.
+     */
+    public List<Integer> search(String query, int count) {
+        Set<String> grams = grams(query);
+        if (grams.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int minScore = (grams.size() + 1) / 2;
+        lock.readLock().lock();
+        try {
+            IntCounter scores = new IntCounter();
+            IntCounter matched = new IntCounter();
+            for (String gram : grams) {
+                addScores(scores, matched, names.get(gram), descriptions.get(gram));
+            }
+            return scores.top(count, filmId -> matched.get(filmId) < minScore);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Различные триграммы текста в порядке появления.
+     */
+    static Set<String> grams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        if (text == null) {
+            return grams;
+        }
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            if (token.length() < GRAM) {
+                grams.add(token);
+                continue;
+            }
+            for (int i = 0; i + GRAM <= token.length(); i++) {
+                grams.add(token.substring(i, i + GRAM));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * Начисляет релевантность за одну триграмму запроса слиянием списков названий и описаний:
+     * в matched фильм получает 1, даже если триграмма есть в обоих полях.
+     */
+    private static void addScores(IntCounter scores, IntCounter matched, Postings names, Postings descriptions) {
+        int nameSize = names == null ? 0 : names.size;
+        int descriptionSize = descriptions == null ? 0 : descriptions.size;
+        int i = 0;
+        int j = 0;
+        while (i < nameSize || j < descriptionSize) {
+            int filmId;
+            int weight = 0;
+            if (j == descriptionSize || i < nameSize && names.ids[i] <= descriptions.ids[j]) {
+                filmId = names.ids[i++];
+                weight += NAME_WEIGHT;
+                if (j < descriptionSize && descriptions.ids[j] == filmId) {
+                    j++;
+                    weight += DESCRIPTION_WEIGHT;
+                }
+            } else {
+                filmId = descriptions.ids[j++];
+                weight += DESCRIPTION_WEIGHT;
+            }
+            scores.add(filmId, weight);
+            matched.increment(filmId);
+        }
+    }
+
+    private static void remove(Map<String, Postings> index, String[] grams, int filmId) {
+        for (String gram : grams) {
+            Postings postings = index.get(gram);
+            if (postings != null && postings.remove(filmId) && postings.size == 0) {
+                index.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Id фильмов по возрастанию. Новые фильмы получают большие id, поэтому добавление почти всегда
+     * дописывает в конец.
+     */
+    private static class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int filmId) {
+            int position = Arrays.binarySearch(ids, 0, size, filmId);
+            if (position >= 0) {
+                return;
+            }
+            position = -position - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = filmId;
+            size++;
+        }
+
+        private boolean remove(int filmId) {
+            int position = Arrays.binarySearch(ids, 0, size, filmId);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+            return true;
+        }
+    }
+}
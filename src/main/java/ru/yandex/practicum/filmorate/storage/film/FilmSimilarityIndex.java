@@ -0,0 +1,210 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.IntCounter;
+import ru.yandex.practicum.filmorate.storage.LikeIndex;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Похожие фильмы по совместным лайкам. Разреженная матрица cooccurrence[f][g] - сколько пользователей
+ * лайкнули оба фильма. Для каждого фильма заранее посчитан список из topK соседей по убыванию совместных
+ * лайков, при равенстве - по возрастанию id, поэтому запросы читают только эти списки и не зависят
+ * от размера каталога и кол-ва пользователей.
+ * Лайк пользователя u фильму f меняет строку f и строки всех фильмов, которые u уже лайкнул;
+ * список соседей строки пересчитывается, только если изменение может его задеть.
+ * Полная пересборка (load) строит новую матрицу в стороне и подменяет ею текущую. Изменения,
+ * пришедшие во время пересборки, запоминаются и накатываются после подмены. Они идемпотентны,
+ * так как индекс хранит лайки каждого пользователя, поэтому лайк, уже попавший в выборку, не задваивается.
+ */
+@Component
+public class FilmSimilarityIndex implements LikeIndex {
+    private static final int[] EMPTY = new int[0];
+    private final int topK;
+    private Map<Integer, int[]> likesByUser = new HashMap<>();
+    private Map<Integer, IntCounter> cooccurrence = new HashMap<>();
+    private Map<Integer, int[]> neighbours = new HashMap<>();
+    private List<long[]> pending;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public FilmSimilarityIndex(@Value("${filmorate.films.similar.top-k:50}") int topK) {
+        this.topK = topK;
+    }
+
+    /**
+     * Начало полной пересборки: с этого момента изменения запоминаются для load.
+     * Вызывается до чтения лайков из базы.
+     */
+    @Override
+    public void beginLoad() {
+        lock.writeLock().lock();
+        try {
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Строит индекс по парам, отсортированным по пользователю. Тяжелая часть идет без блокировки,
+     * под блокировкой только подмена и накат изменений, пришедших после beginLoad.
+     */
+    @Override
+    public void load(int[] userIds, int[] filmIds, int size) {
+        Map<Integer, int[]> newLikes = new HashMap<>();
+        Map<Integer, IntCounter> newCooccurrence = new HashMap<>();
+        for (int from = 0; from < size; ) {
+            int to = from;
+            while (to < size && userIds[to] == userIds[from]) {
+                to++;
+            }
+            int[] films = Arrays.copyOfRange(filmIds, from, to);
+            Arrays.sort(films);
+            newLikes.put(userIds[from], films);
+            for (int i = 0; i < films.length; i++) {
+                IntCounter row = newCooccurrence.computeIfAbsent(films[i], id -> new IntCounter());
+                for (int j = 0; j < films.length; j++) {
+                    if (i != j) {
+                        row.increment(films[j]);
+                    }
+                }
+            }
+            from = to;
+        }
+        Map<Integer, int[]> newNeighbours = new HashMap<>();
+        newCooccurrence.forEach((filmId, row) -> newNeighbours.put(filmId, top(row, topK)));
+        lock.writeLock().lock();
+        try {
+            likesByUser = newLikes;
+            cooccurrence = newCooccurrence;
+            neighbours = newNeighbours;
+            if (pending != null) {
+                pending.forEach(change -> apply((int) change[0], (int) change[1], change[2] > 0));
+                pending = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addLike(int userId, int filmId) {
+        change(userId, filmId, true);
+    }
+
+    @Override
+    public void removeLike(int userId, int filmId) {
+        change(userId, filmId, false);
+    }
+
+    /**
+     * Первые count соседей фильма из готового списка, не больше topK.
+     */
+    public List<Integer> getSimilar(int filmId, int count) {
+        lock.readLock().lock();
+        try {
+            int[] list = neighbours.getOrDefault(filmId, EMPTY);
+            List<Integer> similar = new ArrayList<>(Math.min(count, list.length));
+            for (int i = 0; i < list.length && similar.size() < count; i++) {
+                similar.add(list[i]);
+            }
+            return similar;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Рекомендации пользователю: соседи лайкнутых им фильмов, которые он еще не лайкнул.
+     * Оценка кандидата - сумма совместных лайков с фильмами пользователя по спискам соседей,
+     * то есть O(кол-во лайков пользователя * topK) независимо от каталога.
+     */
+    public List<Integer> recommend(int userId, int count) {
+        lock.readLock().lock();
+        try {
+            int[] liked = likesByUser.getOrDefault(userId, EMPTY);
+            IntCounter scores = new IntCounter(liked.length * Math.min(topK, 16));
+            for (int filmId : liked) {
+                IntCounter row = cooccurrence.get(filmId);
+                for (int neighbour : neighbours.getOrDefault(filmId, EMPTY)) {
+                    scores.add(neighbour, row.get(neighbour));
+                }
+            }
+            return scores.top(count, candidate -> Arrays.binarySearch(liked, candidate) >= 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void change(int userId, int filmId, boolean like) {
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                pending.add(new long[]{userId, filmId, like ? 1 : 0});
+            }
+            apply(userId, filmId, like);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(int userId, int filmId, boolean like) {
+        int[] films = likesByUser.getOrDefault(userId, EMPTY);
+        int position = Arrays.binarySearch(films, filmId);
+        if (like == (position >= 0)) {
+            return;
+        }
+        int delta = like ? 1 : -1;
+        for (int other : films) {
+            if (other != filmId) {
+                changeCount(filmId, other, delta);
+                changeCount(other, filmId, delta);
+            }
+        }
+        int[] newFilms;
+        if (like) {
+            position = -position - 1;
+            newFilms = new int[films.length + 1];
+            System.arraycopy(films, 0, newFilms, 0, position);
+            newFilms[position] = filmId;
+            System.arraycopy(films, position, newFilms, position + 1, films.length - position);
+        } else {
+            newFilms = new int[films.length - 1];
+            System.arraycopy(films, 0, newFilms, 0, position);
+            System.arraycopy(films, position + 1, newFilms, position, films.length - position - 1);
+        }
+        likesByUser.put(userId, newFilms);
+    }
+
+    /**
+     * Меняет cooccurrence[filmId][other] и пересчитывает список соседей filmId, если other в него попадает
+     * или может попасть. Уменьшение счетчика фильма вне списка порядок в списке не меняет.
+     */
+    private void changeCount(int filmId, int other, int delta) {
+        IntCounter row = cooccurrence.computeIfAbsent(filmId, id -> new IntCounter());
+        row.add(other, delta);
+        int[] list = neighbours.getOrDefault(filmId, EMPTY);
+        boolean listed = false;
+        for (int neighbour : list) {
+            listed |= neighbour == other;
+        }
+        if (listed || delta > 0 && (list.length < topK || beats(row, other, list[list.length - 1]))) {
+            neighbours.put(filmId, top(row, topK));
+        }
+    }
+
+    private static boolean beats(IntCounter row, int filmId, int last) {
+        int count = row.get(filmId);
+        int lastCount = row.get(last);
+        return count > lastCount || count == lastCount && filmId < last;
+    }
+
+    private static int[] top(IntCounter row, int count) {
+        return row.top(count, filmId -> false).stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -1,19 +1,71 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.CommonFilms;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
     void add(Film film);
 
+    /**
+     * Добавляет фильмы пакетами. Возвращает ошибки в порядке переданного списка, null - фильм добавлен.
+     */
+    List<String> addFilms(List<Film> films);
+
     Film update(Film film);
 
     List<Film> getFilmsList();
 
+    List<Film> getFilmsPage(Integer after, Integer limit);
+
+    void exportFilms(Consumer<Film> consumer);
+
     void addLike(Integer userId, Integer filmId);
 
+    /**
+     * Добавляет лайки пачками. Уже существующие лайки пропускаются, лайки несуществующих
+     * пользователей или фильмам, которых нет, попадают в ошибки.
+     */
+    BatchResult addLikes(List<Like> likes);
+
     void deleteLike(Integer userId, Integer filmId);
 
+    List<User> getLikes(Integer filmId, Integer after, Integer limit);
+
     Film getFilm (Integer id);
+
+    /**
+     * Самые популярные фильмы по рейтингу в памяти. genreId и year сужают выборку, null - без фильтра.
+     */
+    List<Film> getPopularFilms(Integer count, Integer genreId, Integer year);
+
+    /**
+     * То же, что getPopularFilms, запросом по film.like_count.
+     */
+    List<Film> getMostLikedFilms(Integer count, Integer genreId, Integer year);
+
+    /**
+     * Фильмы, в названии или описании которых есть слова запроса или их части, по убыванию релевантности.
+     */
+    List<Film> searchFilms(String query, Integer count);
+
+    /**
+     * Фильмы, которые чаще всего лайкают вместе с данным.
+     */
+    List<Film> getSimilarFilms(Integer filmId, Integer count);
+
+    /**
+     * Фильмы, похожие на лайкнутые пользователем, кроме уже лайкнутых.
+     */
+    List<Film> getRecommendedFilms(Integer userId, Integer count);
+
+    /**
+     * Фильмы, лайкнутые обоими пользователями, по возрастанию id и коэффициент Жаккара их лайков.
+     */
+    CommonFilms getCommonFilms(Integer userId, Integer otherId);
 }
@@ -0,0 +1,158 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.yandex.practicum.filmorate.model.Like;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отложенная запись одиночных лайков и их удалений. Операция считается принятой, как только попала
+ * в ограниченный кольцевой буфер. Один поток-писатель собирает операции за окно durabilityWindow
+ * (или пока не наберется maxBatch), схлопывает их по паре пользователь-фильм до последней операции
+ * и отдает writer одной пачкой. Поэтому лайк и его отмена в одном окне не дают INSERT.
+ * Если буфер полон, offer ждет до offerTimeout и возвращает false. close() дописывает все, что уже принято.
+ * Принятые, но еще не записанные операции теряются при падении процесса - это и есть окно durabilityWindow.
+ */
+@Slf4j
+public class LikeWriteBehindQueue {
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(IDLE_POLL_MILLIS);
+    private final BlockingQueue<Operation> buffer;
+    private final long windowNanos;
+    private final long offerTimeoutNanos;
+    private final int maxBatch;
+    private final Writer writer;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private long accepted;
+    private long written;
+
+    public LikeWriteBehindQueue(int capacity, int maxBatch, Duration durabilityWindow, Duration offerTimeout,
+                                Writer writer) {
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = maxBatch;
+        this.windowNanos = durabilityWindow.toNanos();
+        this.offerTimeoutNanos = offerTimeout.toNanos();
+        this.writer = writer;
+        this.thread = new Thread(this::run, "like-write-behind");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public boolean offer(int userId, int filmId, boolean like) throws InterruptedException {
+        if (!running) {
+            return false;
+        }
+        Operation operation = new Operation(userId, filmId, like);
+        if (!buffer.offer(operation, offerTimeoutNanos, TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        synchronized (this) {
+            accepted++;
+        }
+        return true;
+    }
+
+    /**
+     * Ждет, пока будут записаны все операции, принятые до вызова.
+     */
+    public synchronized void flush() throws InterruptedException {
+        long target = accepted;
+        while (written < target && thread.isAlive()) {
+            wait(IDLE_POLL_MILLIS);
+        }
+    }
+
+    public int size() {
+        return buffer.size();
+    }
+
+    public void close() throws InterruptedException {
+        running = false;
+        thread.join();
+        // операции, попавшие в буфер одновременно с остановкой писателя
+        List<Operation> rest = new ArrayList<>();
+        buffer.drainTo(rest);
+        write(rest);
+        log.info("Очередь лайков остановлена, записано операций: " + written);
+    }
+
+    private void run() {
+        List<Operation> batch = new ArrayList<>(maxBatch);
+        while (running || !buffer.isEmpty()) {
+            try {
+                Operation first = buffer.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long left = running ? deadline - System.nanoTime() : 0;
+                    if (left <= 0) {
+                        Operation next = buffer.poll();
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        continue;
+                    }
+                    // ждем частями, чтобы close() не ждал конца длинного окна
+                    Operation next = buffer.poll(Math.min(left, IDLE_POLL_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // поток принадлежит очереди: прерывание означает остановку, остаток дочитывается без ожидания
+                running = false;
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<Operation> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<Long, Operation> last = new LinkedHashMap<>();
+        batch.forEach(operation -> last.put(((long) operation.userId << 32) | operation.filmId, operation));
+        List<Like> likes = new ArrayList<>();
+        List<Like> unlikes = new ArrayList<>();
+        last.values().forEach(operation -> (operation.like ? likes : unlikes)
+                .add(new Like(operation.userId, operation.filmId)));
+        try {
+            writer.write(likes, unlikes);
+        } catch (RuntimeException e) {
+            log.error("Не удалось записать операции с лайками, потеряно: " + batch.size(), e);
+        }
+        synchronized (this) {
+            written += batch.size();
+            notifyAll();
+        }
+    }
+
+    public interface Writer {
+        void write(List<Like> likes, List<Like> unlikes);
+    }
+
+    private static class Operation {
+        private final int userId;
+        private final int filmId;
+        private final boolean like;
+
+        private Operation(int userId, int filmId, boolean like) {
+            this.userId = userId;
+            this.filmId = filmId;
+            this.like = like;
+        }
+    }
+}
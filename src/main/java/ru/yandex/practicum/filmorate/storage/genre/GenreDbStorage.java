@@ -1,42 +1,55 @@
 package ru.yandex.practicum.filmorate.storage.genre;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.server.ResponseStatusException;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
 
+import javax.annotation.PostConstruct;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 
+/**
+ * Справочник жанров. Таблица genre заполняется data.sql и не меняется в работе,
+ * поэтому жанры читаются из неизменяемого снимка, индексированного по id.
+ * Снимок загружается при старте и обновляется только явным вызовом reload().
+ */
 @Repository("GenreDbStorage")
-public class GenreDbStorage implements GenreStorage {
+@Slf4j
+public class GenreDbStorage implements GenreStorage, Reloadable {
     private final JdbcTemplate jdbcTemplate;
+    private volatile Snapshot snapshot = new Snapshot(List.of());
 
     @Autowired
     public GenreDbStorage(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    @Override
+    @PostConstruct
+    public void reload() {
+        String sqlQuery = "SELECT * FROM genre ORDER BY genre_id";
+        snapshot = new Snapshot(jdbcTemplate.query(sqlQuery, this::makeGenre));
+        log.info("Справочник жанров загружен, жанров: " + snapshot.genres.size());
+    }
+
     @Override
     public List<Genre> getGenresList() {
-        String sqlQuery = "SELECT * FROM genre";
-        return jdbcTemplate.query(sqlQuery, this::makeGenre);
+        return snapshot.genres;
     }
 
     @Override
     public Genre getGenre(Integer id) throws ResponseStatusException {
-        Genre genre;
-        String sqlQuery = "SELECT * FROM genre WHERE genre_id = ?";
-        try {
-            genre = jdbcTemplate.queryForObject(sqlQuery, this::makeGenre, id);
-        } catch (EmptyResultDataAccessException e) {
+        Genre[] genresById = snapshot.genresById;
+        if (id == null || id < 0 || id >= genresById.length || genresById[id] == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Жанра с id=" + id + " нет");
         }
-        return genre;
+        return genresById[id];
     }
 
     private Genre makeGenre(ResultSet resultSet, int rowNum) throws SQLException {
@@ -45,4 +58,15 @@ public class GenreDbStorage implements GenreStorage {
                 .name(resultSet.getString("genre_name"))
                 .build();
     }
+
+    private static class Snapshot {
+        private final List<Genre> genres;
+        private final Genre[] genresById;
+
+        private Snapshot(List<Genre> genres) {
+            this.genres = List.copyOf(genres);
+            this.genresById = new Genre[genres.stream().mapToInt(Genre::getId).max().orElse(0) + 1];
+            genres.forEach(genre -> genresById[genre.getId()] = genre);
+        }
+    }
 }
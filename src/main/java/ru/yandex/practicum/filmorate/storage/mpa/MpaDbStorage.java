@@ -1,42 +1,55 @@
 package ru.yandex.practicum.filmorate.storage.mpa;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.server.ResponseStatusException;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
 
+import javax.annotation.PostConstruct;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 
+/**
+ * Справочник рейтингов MPA. Таблица mpa заполняется data.sql и не меняется в работе,
+ * поэтому рейтинги читаются из неизменяемого снимка, индексированного по id.
+ * Снимок загружается при старте и обновляется только явным вызовом reload().
+ */
 @Repository("MpaDbStorage")
-public class MpaDbStorage implements MpaStorage{
+@Slf4j
+public class MpaDbStorage implements MpaStorage, Reloadable {
     private final JdbcTemplate jdbcTemplate;
+    private volatile Snapshot snapshot = new Snapshot(List.of());
 
     @Autowired
     public MpaDbStorage(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    @Override
+    @PostConstruct
+    public void reload() {
+        String sqlQuery = "SELECT * FROM mpa ORDER BY mpa_id";
+        snapshot = new Snapshot(jdbcTemplate.query(sqlQuery, this::makeMpa));
+        log.info("Справочник рейтингов загружен, рейтингов: " + snapshot.mpas.size());
+    }
+
     @Override
     public List<Mpa> getMpasList() {
-        String sqlQuery = "SELECT * FROM mpa";
-        return jdbcTemplate.query(sqlQuery, this::makeMpa);
+        return snapshot.mpas;
     }
 
     @Override
     public Mpa getMpa(Integer id) throws ResponseStatusException {
-        Mpa mpa;
-        String sqlQuery = "SELECT * FROM mpa WHERE mpa_id = ?";
-        try {
-            mpa = jdbcTemplate.queryForObject(sqlQuery, this::makeMpa, id);
-        } catch (EmptyResultDataAccessException e) {
+        Mpa[] mpasById = snapshot.mpasById;
+        if (id == null || id < 0 || id >= mpasById.length || mpasById[id] == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Рейтинга с id=" + id + " нет");
         }
-        return mpa;
+        return mpasById[id];
     }
 
     private Mpa makeMpa(ResultSet resultSet, int rowNum) throws SQLException {
@@ -45,4 +58,15 @@ public class MpaDbStorage implements MpaStorage{
                 .name(resultSet.getString("mpa_name"))
                 .build();
     }
+
+    private static class Snapshot {
+        private final List<Mpa> mpas;
+        private final Mpa[] mpasById;
+
+        private Snapshot(List<Mpa> mpas) {
+            this.mpas = List.copyOf(mpas);
+            this.mpasById = new Mpa[mpas.stream().mapToInt(Mpa::getId).max().orElse(0) + 1];
+            mpas.forEach(mpa -> mpasById[mpa.getId()] = mpa);
+        }
+    }
 }
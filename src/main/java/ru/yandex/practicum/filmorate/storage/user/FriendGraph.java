@@ -0,0 +1,250 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import ru.yandex.practicum.filmorate.storage.IntCounter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Граф друзей в памяти в виде CSR: друзья пользователя u лежат отсортированными в targets
+ * с offsets[u] по offsets[u + 1]. Изменения после загрузки копируются в отдельные отсортированные
+ * массивы changed по пользователю, а когда их становится много, CSR пересобирается целиком.
+ * Дружба направленная, как friend_request: sender добавил addressee в друзья.
+ */
+public class FriendGraph {
+    private static final int MIN_COMPACT_THRESHOLD = 1024;
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 512;
+    private static final int[] EMPTY = new int[0];
+    private final int parallelThreshold;
+    private int[] offsets = {0};
+    private int[] targets = EMPTY;
+    private final Map<Integer, int[]> changed = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public FriendGraph() {
+        this(DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * parallelThreshold - со скольких друзей рекомендации считаются в общем пуле ForkJoin.
+     */
+    public FriendGraph(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Строит граф по парам, отсортированным по sender, затем по addressee.
+     */
+    public void load(int[] senders, int[] addressees, int size) {
+        int users = size == 0 ? 0 : senders[size - 1] + 1;
+        int[] newOffsets = new int[users + 1];
+        for (int i = 0; i < size; i++) {
+            newOffsets[senders[i] + 1]++;
+        }
+        for (int u = 0; u < users; u++) {
+            newOffsets[u + 1] += newOffsets[u];
+        }
+        lock.writeLock().lock();
+        try {
+            offsets = newOffsets;
+            targets = Arrays.copyOf(addressees, size);
+            changed.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean add(int userId, int friendId) {
+        lock.writeLock().lock();
+        try {
+            int[] row = row(userId);
+            int position = Arrays.binarySearch(row, friendId);
+            if (position >= 0) {
+                return false;
+            }
+            position = -position - 1;
+            int[] newRow = new int[row.length + 1];
+            System.arraycopy(row, 0, newRow, 0, position);
+            newRow[position] = friendId;
+            System.arraycopy(row, position, newRow, position + 1, row.length - position);
+            update(userId, newRow);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(int userId, int friendId) {
+        lock.writeLock().lock();
+        try {
+            int[] row = row(userId);
+            int position = Arrays.binarySearch(row, friendId);
+            if (position < 0) {
+                return false;
+            }
+            int[] newRow = new int[row.length - 1];
+            System.arraycopy(row, 0, newRow, 0, position);
+            System.arraycopy(row, position + 1, newRow, position, row.length - position - 1);
+            update(userId, newRow);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Друзья пользователя по возрастанию id.
+     */
+    public int[] friends(int userId) {
+        lock.readLock().lock();
+        try {
+            return row(userId).clone();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Общие друзья двух пользователей слиянием двух отсортированных списков за O(n + m).
+     */
+    public int[] commonFriends(int userId, int otherId) {
+        lock.readLock().lock();
+        try {
+            return intersect(row(userId), row(otherId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Рекомендации друзей: друзья друзей, которые еще не в друзьях, по убыванию кол-ва общих друзей,
+     * при равенстве - по возрастанию id. Каждый друг дает +1 каждому своему другу, счет идет
+     * в примитивных счетчиках без сортировки всех кандидатов. Если друзей не меньше parallelThreshold,
+     * список друзей делится пополам до кусков меньше порога, куски считаются в общем пуле ForkJoin
+     * и их счетчики складываются. Читающая блокировка держится вызывающим потоком все время расчета,
+     * поэтому граф не меняется, пока его читают задачи пула.
+     */
+    public List<Integer> recommend(int userId, int count) {
+        lock.readLock().lock();
+        try {
+            int[] friends = row(userId);
+            IntCounter candidates = friends.length < parallelThreshold
+                    ? countFriends(friends, 0, friends.length)
+                    : ForkJoinPool.commonPool().invoke(new CountTask(friends, 0, friends.length));
+            return candidates.top(count, candidate -> candidate == userId
+                    || Arrays.binarySearch(friends, candidate) >= 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static int[] intersect(int[] first, int[] second) {
+        int[] common = new int[Math.min(first.length, second.length)];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                common[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(common, size);
+    }
+
+    private int[] row(int userId) {
+        int[] row = changed.get(userId);
+        if (row != null) {
+            return row;
+        }
+        if (userId < 0 || userId + 1 >= offsets.length) {
+            return EMPTY;
+        }
+        return Arrays.copyOfRange(targets, offsets[userId], offsets[userId + 1]);
+    }
+
+    private IntCounter countFriends(int[] friends, int from, int to) {
+        IntCounter counter = new IntCounter();
+        for (int i = from; i < to; i++) {
+            int[] row = changed.get(friends[i]);
+            if (row != null) {
+                for (int candidate : row) {
+                    counter.increment(candidate);
+                }
+            } else if (friends[i] + 1 < offsets.length) {
+                for (int j = offsets[friends[i]]; j < offsets[friends[i] + 1]; j++) {
+                    counter.increment(targets[j]);
+                }
+            }
+        }
+        return counter;
+    }
+
+    private class CountTask extends RecursiveTask<IntCounter> {
+        private static final long serialVersionUID = 1L;
+        private final int[] friends;
+        private final int from;
+        private final int to;
+
+        private CountTask(int[] friends, int from, int to) {
+            this.friends = friends;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected IntCounter compute() {
+            if (to - from < Math.max(parallelThreshold, 2)) {
+                return countFriends(friends, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            CountTask left = new CountTask(friends, from, middle);
+            left.fork();
+            IntCounter right = new CountTask(friends, middle, to).compute();
+            IntCounter result = left.join();
+            if (result.size() < right.size()) {
+                right.addAll(result);
+                return right;
+            }
+            result.addAll(right);
+            return result;
+        }
+    }
+
+    private void update(int userId, int[] row) {
+        changed.put(userId, row);
+        if (changed.size() > Math.max(MIN_COMPACT_THRESHOLD, offsets.length / 8)) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        int users = offsets.length - 1;
+        for (Integer userId : changed.keySet()) {
+            users = Math.max(users, userId + 1);
+        }
+        int[] newOffsets = new int[users + 1];
+        for (int u = 0; u < users; u++) {
+            newOffsets[u + 1] = newOffsets[u] + row(u).length;
+        }
+        int[] newTargets = new int[newOffsets[users]];
+        for (int u = 0; u < users; u++) {
+            int[] row = row(u);
+            System.arraycopy(row, 0, newTargets, newOffsets[u], row.length);
+        }
+        offsets = newOffsets;
+        targets = newTargets;
+        changed.clear();
+    }
+}
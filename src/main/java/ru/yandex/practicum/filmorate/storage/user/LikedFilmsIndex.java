@@ -0,0 +1,120 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.CompressedBitmap;
+import ru.yandex.practicum.filmorate.storage.LikeIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Лайкнутые фильмы каждого пользователя в виде сжатой битовой карты по id фильмов.
+ * Общие фильмы двух пользователей - пересечение их карт в памяти, без запроса к likes.
+ * Пересборка и накат изменений во время нее - как в FilmSimilarityIndex.
+ */
+@Component
+public class LikedFilmsIndex implements LikeIndex {
+    private Map<Integer, CompressedBitmap> likesByUser = new HashMap<>();
+    private List<long[]> pending;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public void beginLoad() {
+        lock.writeLock().lock();
+        try {
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void load(int[] userIds, int[] filmIds, int size) {
+        Map<Integer, CompressedBitmap> newLikes = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            newLikes.computeIfAbsent(userIds[i], id -> new CompressedBitmap()).add(filmIds[i]);
+        }
+        lock.writeLock().lock();
+        try {
+            likesByUser = newLikes;
+            if (pending != null) {
+                pending.forEach(change -> apply((int) change[0], (int) change[1], change[2] > 0));
+                pending = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addLike(int userId, int filmId) {
+        change(userId, filmId, true);
+    }
+
+    @Override
+    public void removeLike(int userId, int filmId) {
+        change(userId, filmId, false);
+    }
+
+    /**
+     * Фильмы, лайкнутые обоими пользователями, по возрастанию id, и коэффициент Жаккара их лайков:
+     * общие / все лайкнутые хотя бы одним. Без лайков у обоих коэффициент 0.
+     */
+    public Intersection intersect(int userId, int otherId) {
+        lock.readLock().lock();
+        try {
+            CompressedBitmap likes = likesByUser.getOrDefault(userId, new CompressedBitmap());
+            CompressedBitmap otherLikes = likesByUser.getOrDefault(otherId, new CompressedBitmap());
+            int[] common = likes.and(otherLikes);
+            int union = likes.cardinality() + otherLikes.cardinality() - common.length;
+            return new Intersection(common, union == 0 ? 0 : (double) common.length / union);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void change(int userId, int filmId, boolean like) {
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                pending.add(new long[]{userId, filmId, like ? 1 : 0});
+            }
+            apply(userId, filmId, like);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(int userId, int filmId, boolean like) {
+        if (like) {
+            likesByUser.computeIfAbsent(userId, id -> new CompressedBitmap()).add(filmId);
+            return;
+        }
+        CompressedBitmap likes = likesByUser.get(userId);
+        if (likes != null && likes.remove(filmId) && likes.cardinality() == 0) {
+            likesByUser.remove(userId);
+        }
+    }
+
+    public static class Intersection {
+        private final int[] filmIds;
+        private final double jaccard;
+
+        private Intersection(int[] filmIds, double jaccard) {
+            this.filmIds = filmIds;
+            this.jaccard = jaccard;
+        }
+
+        public int[] getFilmIds() {
+            return filmIds;
+        }
+
+        public double getJaccard() {
+            return jaccard;
+        }
+    }
+}
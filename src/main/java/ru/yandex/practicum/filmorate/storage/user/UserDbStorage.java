@@ -2,68 +2,274 @@ package ru.yandex.practicum.filmorate.storage.user;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.EventJournal;
+import ru.yandex.practicum.filmorate.storage.IdIndex;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
 
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 @Repository("UserDbStorage")
+@ConditionalOnProperty(name = "filmorate.storage.engine", havingValue = "db", matchIfMissing = true)
 @Slf4j
-public class UserDbStorage implements UserStorage {
+public class UserDbStorage implements UserStorage, Reloadable {
+    private static final String FRIENDS_QUERY = "SELECT fr.sender_id, person.* " +
+            "FROM friend_request AS fr JOIN person ON fr.addressee_id = person.person_id";
+    private static final String USER_INSERT = "INSERT INTO person (email, login, name, birthday) VALUES (?, ?, ?, ?)";
+    private static final String DUPLICATE_USER = "Пользователь с таким email или логином уже есть";
     private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final SimpleJdbcInsert userInsert;
+    private final TransactionTemplate transactionTemplate;
+    private final int exportFetchSize;
+    private final IdIndex userIds = new IdIndex();
+    private final FriendGraph friendGraph = new FriendGraph();
+    private final UserTasteIndex tastes;
+    private final EventJournal journal;
 
     @Autowired
-    public UserDbStorage(JdbcTemplate jdbcTemplate) {
+    public UserDbStorage(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                         UserTasteIndex tastes, EventJournal journal,
+                         @Value("${filmorate.export.fetch-size:500}") int exportFetchSize) {
         this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.userInsert = new SimpleJdbcInsert(jdbcTemplate)
+                .withTableName("person")
+                .usingColumns("email", "login", "name", "birthday")
+                .usingGeneratedKeyColumns("person_id");
+        this.tastes = tastes;
+        this.journal = journal;
+        this.exportFetchSize = exportFetchSize;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    @PostConstruct
+    public void reload() {
+        userIds.clear();
+        jdbcTemplate.query("SELECT person_id FROM person", (RowCallbackHandler) rs -> userIds.add(rs.getInt(1)));
+        log.info("Индекс пользователей загружен, пользователей: " + userIds.size());
+        if (loadFriendsFromJournal()) {
+            return;
+        }
+        int[][] pairs = {new int[1024], new int[1024]};
+        int[] size = {0};
+        jdbcTemplate.query("SELECT sender_id, addressee_id FROM friend_request ORDER BY sender_id, addressee_id",
+                (RowCallbackHandler) rs -> {
+                    if (size[0] == pairs[0].length) {
+                        pairs[0] = Arrays.copyOf(pairs[0], size[0] * 2);
+                        pairs[1] = Arrays.copyOf(pairs[1], size[0] * 2);
+                    }
+                    pairs[0][size[0]] = rs.getInt(1);
+                    pairs[1][size[0]++] = rs.getInt(2);
+                });
+        friendGraph.load(pairs[0], pairs[1], size[0]);
+        log.info("Граф друзей загружен, связей: " + size[0]);
+        journal.seed(EventJournal.FRIEND_ADD, pairs[0], pairs[1], size[0], EventJournal.FRIENDS_SEEDED);
+    }
+
+    /**
+     * Строит граф друзей проигрыванием журнала событий. Возвращает false, если журнал выключен
+     * или еще не содержит начального состояния friend_request.
+     */
+    private boolean loadFriendsFromJournal() {
+        if (!journal.isEnabled()) {
+            return false;
+        }
+        journal.bind(jdbcTemplate.queryForObject("SELECT generation FROM schema_generation", Long.class));
+        Set<Long> friendships = new HashSet<>();
+        boolean[] seeded = {false};
+        journal.replay((sequence, type, first, second) -> {
+            if (type == EventJournal.FRIENDS_SEEDED) {
+                seeded[0] = true;
+            } else if (type == EventJournal.FRIEND_ADD) {
+                friendships.add((long) first << 32 | second);
+            } else if (type == EventJournal.FRIEND_REMOVE) {
+                friendships.remove((long) first << 32 | second);
+            }
+        });
+        if (!seeded[0]) {
+            return false;
+        }
+        long[] sorted = friendships.stream().mapToLong(Long::longValue).sorted().toArray();
+        int[] senders = new int[sorted.length];
+        int[] addressees = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            senders[i] = (int) (sorted[i] >>> 32);
+            addressees[i] = (int) sorted[i];
+        }
+        friendGraph.load(senders, addressees, sorted.length);
+        log.info("Граф друзей восстановлен из журнала событий, связей: " + sorted.length);
+        return true;
     }
 
     @Override
     public void add(User user) {
-        if (dbContainsUser(user)) {
+        Integer userId;
+        try {
+            userId = userInsert.executeAndReturnKey(user.toMap()).intValue();
+        } catch (DuplicateKeyException e) {
             log.warn("Такой пользователь уже есть");
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Такой пользователь уже есть");
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, DUPLICATE_USER);
         }
-        Integer userId = addUserInfo(user);
         user.setId(userId);
+        userIds.add(userId);
         String sqlQuery = "INSERT INTO friend_request (sender_id, addressee_id) VALUES (?, ?)";
         user.getFriends().stream().map(friend -> jdbcTemplate.update(sqlQuery, userId, friend));
     }
 
+    /**
+     * Вставляет пачку одним batch-запросом в одной транзакции. Занятые email и логины отсеиваются заранее
+     * одним запросом по уникальным индексам. Если пачка все же упала на ограничении, она откатывается
+     * и пользователи из нее добавляются по одному.
+     */
+    @Override
+    public List<String> addUsers(List<User> users) {
+        List<String> errors = new ArrayList<>(Collections.nCopies(users.size(), null));
+        Map<String, Integer> byEmail = new HashMap<>();
+        Map<String, Integer> byLogin = new HashMap<>();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (byEmail.putIfAbsent(user.getEmail(), i) != null || byLogin.putIfAbsent(user.getLogin(), i) != null) {
+                errors.set(i, DUPLICATE_USER);
+            }
+        }
+        if (!users.isEmpty()) {
+            String sqlQuery = "SELECT email, login FROM person WHERE email IN (:emails) OR login IN (:logins)";
+            MapSqlParameterSource params = new MapSqlParameterSource("emails", byEmail.keySet())
+                    .addValue("logins", byLogin.keySet());
+            namedJdbcTemplate.query(sqlQuery, params, (RowCallbackHandler) rs -> {
+                Integer sameEmail = byEmail.get(rs.getString("email"));
+                Integer sameLogin = byLogin.get(rs.getString("login"));
+                if (sameEmail != null) {
+                    errors.set(sameEmail, DUPLICATE_USER);
+                }
+                if (sameLogin != null) {
+                    errors.set(sameLogin, DUPLICATE_USER);
+                }
+            });
+        }
+        List<User> batch = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            if (errors.get(i) == null) {
+                batch.add(users.get(i));
+            }
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> insertBatch(batch));
+        } catch (DataIntegrityViolationException e) {
+            log.warn("Пачка пользователей откатилась, добавляем по одному");
+            for (int i = 0; i < users.size(); i++) {
+                if (errors.get(i) != null) {
+                    continue;
+                }
+                try {
+                    add(users.get(i));
+                } catch (ResponseStatusException e2) {
+                    errors.set(i, e2.getReason());
+                } catch (DataIntegrityViolationException e2) {
+                    errors.set(i, "Пользователь не сохранен: нарушено ограничение таблицы");
+                }
+            }
+            return errors;
+        }
+        batch.forEach(user -> userIds.add(user.getId()));
+        return errors;
+    }
+
     public void delete(User user) {
     }
     @Override
     public void update(User user) {
         String sqlQuery = "UPDATE person " +
                 "SET email = ?, login = ?, name = ?, birthday = ? WHERE person_id = ?";
-        if (jdbcTemplate.update(sqlQuery, user.getEmail(), user.getLogin(), user.getName()
-                , user.getBirthday(), user.getId()) == 0) {
+        int updated;
+        try {
+            updated = jdbcTemplate.update(sqlQuery, user.getEmail(), user.getLogin(), user.getName()
+                    , user.getBirthday(), user.getId());
+        } catch (DuplicateKeyException e) {
+            log.warn("Email или логин заняты другим пользователем");
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, DUPLICATE_USER);
+        }
+        if (updated == 0) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id=" + user.getId() + " нет");
         }
     }
 
     @Override
     public List<User> getUsersList() {
-        String sqlQuery = "SELECT * FROM person";
-        return jdbcTemplate.query(sqlQuery, this::makeUser);
+        String sqlQuery = "SELECT * FROM person ORDER BY person_id";
+        List<User> users = jdbcTemplate.query(sqlQuery, this::makeFriendUser);
+        Map<Integer, User> usersById = toMap(users);
+        jdbcTemplate.query(FRIENDS_QUERY, (RowCallbackHandler) rs -> addFriend(usersById, rs));
+        return users;
+    }
+
+    @Override
+    public List<User> getUsersPage(Integer after, Integer limit) {
+        String sqlQuery = "SELECT * FROM person WHERE person_id > ? ORDER BY person_id LIMIT ?";
+        return addFriends(jdbcTemplate.query(sqlQuery, this::makeFriendUser, after, limit));
+    }
+
+    /**
+     * Читает пользователей однонаправленным курсором и отдает их по одному, не собирая весь список в памяти.
+     * Друзья догружаются пачками по exportFetchSize пользователей.
+     */
+    @Override
+    public void exportUsers(Consumer<User> consumer) {
+        String sqlQuery = "SELECT * FROM person ORDER BY person_id";
+        List<User> chunk = new ArrayList<>(exportFetchSize);
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sqlQuery,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(exportFetchSize);
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            chunk.add(makeFriendUser(rs, 0));
+            if (chunk.size() == exportFetchSize) {
+                addFriends(chunk).forEach(consumer);
+                chunk.clear();
+            }
+        });
+        addFriends(chunk).forEach(consumer);
     }
 
     @Override
     public void addFriend(Integer userId, Integer friendId) throws ResponseStatusException {
-        if (!dbContainsUser(userId)) {
+        if (!contains(userId)) {
             String message = "Ошибка добавления в друзья!" +
                     " Невозможно добавиться в друзья к пользователю с несуществующим id= " + userId;
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
         }
-        if (!dbContainsUser(friendId)) {
+        if (!contains(friendId)) {
             String message = "Ошибка добавления в друзья!" +
                     " Невозможно добавить в друзья несуществующего пользователя с id=" + friendId;
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
@@ -80,16 +286,20 @@ public class UserDbStorage implements UserStorage {
                     " Невозможно добавиться в друзья самому к себе";
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, message);
         }
+        AfterCommit.run(() -> {
+            friendGraph.add(userId, friendId);
+            journal.append(EventJournal.FRIEND_ADD, userId, friendId);
+        });
     }
 
     @Override
     public void deleteFriend(Integer userId, Integer friendId) throws ResponseStatusException {
-        if (!dbContainsUser(userId)) {
+        if (!contains(userId)) {
             String message = "Ошибка удаления из друзей!" +
                     " Невозможно удалиться из друзей несуществующего пользователя с id=" + userId;
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
         }
-        if (!dbContainsUser(friendId)) {
+        if (!contains(friendId)) {
             String message = "Ошибка удаления из друзей!" +
                     " Невозможно удалить из друзей несуществующего пользователя с id=" + friendId;
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
@@ -99,55 +309,100 @@ public class UserDbStorage implements UserStorage {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND,
                     "Лайка от пользователя с id=" + userId + " у фильма с id=" + friendId + " нет");
         }
+        AfterCommit.run(() -> {
+            friendGraph.remove(userId, friendId);
+            journal.append(EventJournal.FRIEND_REMOVE, userId, friendId);
+        });
     }
 
     @Override
     public List<User> getCommonFriends(Integer userId, Integer friendId) throws ResponseStatusException {
-        if (!dbContainsUser(userId)) {
+        if (!contains(userId)) {
             String message = "Ошибка запроса списка общих друзей!" +
                     " Невозможно получить список друзей несуществующего пользователя с id=" + userId;
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
         }
-        if (!dbContainsUser(friendId)) {
+        if (!contains(friendId)) {
             String message = "Ошибка запроса списка общих друзей!" +
                     " Невозможно получить список друзей несуществующего пользователя с id=" + friendId;
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
         }
-        String sqlQuery = "SELECT * " +
-                "FROM person " +
-                "WHERE person_id IN " +
-                "(SELECT * FROM (SELECT  addressee_id " +
-                "FROM FRIEND_REQUEST " +
-                "WHERE sender_id = ? OR sender_id = ? )  GROUP BY addressee_id HAVING COUNT(addressee_id) > 1)";
-        return jdbcTemplate.query(sqlQuery, this::makeFriendUser, userId, friendId);
+        return getUsersByIds(friendGraph.commonFriends(userId, friendId));
     }
 
     @Override
     public List<User> getFriends(Integer friendId) {
-        if (!dbContainsUser(friendId)) {
+        if (!contains(friendId)) {
             String message = "Ошибка запроса списка друзей!" +
                     " Невозможно получить список друзей несуществующего пользователя с id=" + friendId;
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
         }
-        String sqlQuery = "SELECT * FROM person " +
-                "WHERE person_id IN (SELECT addressee_id FROM friend_request WHERE sender_id = ?)";
-        return jdbcTemplate.query(sqlQuery, this::makeFriendUser, friendId);
+        return getUsersByIds(friendGraph.friends(friendId));
+    }
+
+    @Override
+    public List<User> getRecommendations(Integer userId, Integer count) {
+        if (!contains(userId)) {
+            String message = "Ошибка запроса рекомендаций!" +
+                    " Невозможно получить рекомендации для несуществующего пользователя с id=" + userId;
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        return getUsersInOrder(friendGraph.recommend(userId, count));
+    }
+
+    @Override
+    public List<User> getSimilarUsers(Integer userId, Integer count) {
+        if (!contains(userId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id=" + userId + " нет");
+        }
+        return getUsersInOrder(tastes.similar(userId, count));
     }
 
     @Override
     public User getUser(Integer userId) throws ResponseStatusException {
-        if (!dbContainsUser(userId)) {
+        String sqlQuery = "SELECT * FROM person WHERE person_id = ?";
+        try {
+            return jdbcTemplate.queryForObject(sqlQuery, this::makeUser, userId);
+        } catch (EmptyResultDataAccessException e) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id= " + userId + " не существует");
         }
-        String sqlQuery = "SELECT * FROM person WHERE person_id = ?";
-        return jdbcTemplate.queryForObject(sqlQuery, this::makeUser, userId);
     }
 
-    private int addUserInfo(User user) {
-        SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(jdbcTemplate)
-                .withTableName("person")
-                .usingGeneratedKeyColumns("person_id");
-        return simpleJdbcInsert.executeAndReturnKey(user.toMap()).intValue();
+    /**
+     * Проверяет существование пользователя по индексу id. В базу идет только при промахе индекса:
+     * пользователь мог быть добавлен другим узлом.
+     */
+    @Override
+    public boolean contains(Integer userId) {
+        if (userIds.contains(userId)) {
+            return true;
+        }
+        String sqlQuery = "SELECT EXISTS (SELECT 1 FROM person WHERE person_id = ?)";
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(sqlQuery, Boolean.class, userId))) {
+            userIds.add(userId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * batch-вставка не возвращает сгенерированные ключи, поэтому id забираются вторым запросом
+     * по уникальному индексу email.
+     */
+    private void insertBatch(List<User> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        Map<String, User> byEmail = new HashMap<>();
+        for (User user : batch) {
+            byEmail.put(user.getEmail(), user);
+            rows.add(new Object[]{user.getEmail(), user.getLogin(), user.getName(), user.getBirthday()});
+        }
+        jdbcTemplate.batchUpdate(USER_INSERT, rows);
+        String sqlQuery = "SELECT person_id, email FROM person WHERE email IN (:emails)";
+        namedJdbcTemplate.query(sqlQuery, new MapSqlParameterSource("emails", byEmail.keySet()),
+                (RowCallbackHandler) rs -> byEmail.get(rs.getString("email")).setId(rs.getInt("person_id")));
     }
 
     private User makeUser(ResultSet resultSet, int rowNum) throws SQLException {
@@ -158,11 +413,68 @@ public class UserDbStorage implements UserStorage {
                 .name(resultSet.getString("name"))
                 .birthday(resultSet.getDate("birthday").toLocalDate())
                 .build();
-        String sqlQuery = "SELECT * FROM person WHERE person_id IN (SELECT addressee_id  FROM friend_request WHERE sender_id = ?)";
-        user.getFriends().addAll(jdbcTemplate.query(sqlQuery, this::makeFriendUser, user.getId()));
+        user.getFriends().addAll(getUsersByIds(friendGraph.friends(user.getId())));
         return user;
     }
 
+    /**
+     * Загружает пользователей одним запросом, в порядке возрастания id.
+     */
+    private List<User> getUsersByIds(int[] ids) {
+        if (ids.length == 0) {
+            return new ArrayList<>();
+        }
+        List<Integer> idList = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            idList.add(id);
+        }
+        String sqlQuery = "SELECT * FROM person WHERE person_id IN (:ids) ORDER BY person_id";
+        return namedJdbcTemplate.query(sqlQuery, new MapSqlParameterSource("ids", idList), this::makeFriendUser);
+    }
+
+    /**
+     * Загружает пользователей одним запросом и возвращает их в порядке переданных id.
+     */
+    private List<User> getUsersInOrder(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String sqlQuery = "SELECT * FROM person WHERE person_id IN (:ids)";
+        Map<Integer, User> usersById = toMap(namedJdbcTemplate.query(sqlQuery, new MapSqlParameterSource("ids", ids),
+                this::makeFriendUser));
+        List<User> users = new ArrayList<>(ids.size());
+        ids.forEach(id -> {
+            if (usersById.containsKey(id)) {
+                users.add(usersById.get(id));
+            }
+        });
+        return users;
+    }
+
+    private List<User> addFriends(List<User> users) {
+        if (users.isEmpty()) {
+            return users;
+        }
+        Map<Integer, User> usersById = toMap(users);
+        namedJdbcTemplate.query(FRIENDS_QUERY + " WHERE fr.sender_id IN (:ids)",
+                new MapSqlParameterSource("ids", usersById.keySet()),
+                (RowCallbackHandler) rs -> addFriend(usersById, rs));
+        return users;
+    }
+
+    private Map<Integer, User> toMap(List<User> users) {
+        Map<Integer, User> usersById = new HashMap<>();
+        users.forEach(user -> usersById.put(user.getId(), user));
+        return usersById;
+    }
+
+    private void addFriend(Map<Integer, User> usersById, ResultSet resultSet) throws SQLException {
+        User user = usersById.get(resultSet.getInt("sender_id"));
+        if (user != null) {
+            user.getFriends().add(makeFriendUser(resultSet, 0));
+        }
+    }
+
     private User makeFriendUser(ResultSet resultSet, int rowNum) throws SQLException {
         return User.builder()
                 .id(resultSet.getInt("person_id"))
@@ -172,25 +484,4 @@ public class UserDbStorage implements UserStorage {
                 .birthday(resultSet.getDate("birthday").toLocalDate())
                 .build();
     }
-
-    private boolean dbContainsUser(User user) {
-        String sqlQuery = "SELECT * FROM person WHERE email = ? AND login = ? AND name = ? AND birthday = ?";
-        try {
-            jdbcTemplate.queryForObject(sqlQuery, this::makeUser, user.getEmail(), user.getLogin(),
-                    user.getName(), user.getBirthday());
-            return true;
-        } catch (EmptyResultDataAccessException e) {
-            return false;
-        }
-    }
-
-    private boolean dbContainsUser(Integer userId) {
-        String sqlQuery = "SELECT * FROM person WHERE person_id = ?";
-        try {
-            jdbcTemplate.queryForObject(sqlQuery, this::makeUser, userId);
-            return true;
-        } catch (EmptyResultDataAccessException e) {
-            return false;
-        }
-    }
 }
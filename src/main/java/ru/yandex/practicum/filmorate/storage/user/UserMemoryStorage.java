@@ -0,0 +1,568 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.server.ResponseStatusException;
+import ru.yandex.practicum.filmorate.model.IdSet;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.IdIndex;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
+import ru.yandex.practicum.filmorate.storage.StripedIntMap;
+import ru.yandex.practicum.filmorate.storage.WriteAheadLog;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+/**
+ * Хранилище пользователей целиком в памяти, без базы данных. Включается filmorate.storage.engine=memory.
+ * Пользователи лежат в StripedIntMap по id, друзья пользователя - в его записи. Изменение пользователя
+ * и его заявок в друзья дописывается в журнал упреждающей записи и применяется под блокировкой полосы
+ * его id, поэтому изменения разных пользователей идут параллельно. Занятые email и логины - в отдельных
+ * ConcurrentHashMap: пользователь сначала занимает их (новый - с отметкой PENDING вместо id), и только потом
+ * пишется. Id новому пользователю выдается после того, как email и логин заняты, поэтому отклоненный дубль,
+ * как и в базе, не расходует id.
+ */
+@Repository("UserMemoryStorage")
+@ConditionalOnProperty(name = "filmorate.storage.engine", havingValue = "memory")
+@Slf4j
+public class UserMemoryStorage implements UserStorage, Reloadable {
+    private static final int USER_PUT = 1;
+    private static final int FRIEND_ADD = 2;
+    private static final int FRIEND_REMOVE = 3;
+    private static final Integer PENDING = -1;
+    private static final String DUPLICATE_USER = "Пользователь с таким email или логином уже есть";
+    private final StripedIntMap<UserEntry> users;
+    private final IdIndex userIds = new IdIndex();
+    private final Map<String, Integer> emails = new ConcurrentHashMap<>();
+    private final Map<String, Integer> logins = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final FriendGraph friendGraph = new FriendGraph();
+    private final UserTasteIndex tastes;
+    private final WriteAheadLog wal;
+    private final ScheduledExecutorService checkpoints;
+    private final long checkpointIntervalMillis;
+    private final AtomicBoolean recovered = new AtomicBoolean();
+
+    @Autowired
+    public UserMemoryStorage(UserTasteIndex tastes,
+                             @Value("${filmorate.storage.memory.path:./db/memory}") String path,
+                             @Value("${filmorate.storage.memory.fsync:false}") boolean fsync,
+                             @Value("${filmorate.storage.memory.stripes:64}") int stripes,
+                             @Value("${filmorate.storage.memory.checkpoint-interval:1m}") Duration checkpointInterval) {
+        this.tastes = tastes;
+        this.users = new StripedIntMap<>(stripes);
+        this.wal = new WriteAheadLog(Paths.get(path), "users", fsync);
+        this.checkpoints = checkpointInterval.isZero() ? null
+                : Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "user-checkpoint");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.checkpointIntervalMillis = checkpointInterval.toMillis();
+    }
+
+    /**
+     * Восстанавливает пользователей из контрольной точки и журнала и строит по ним граф друзей.
+     */
+    @Override
+    @PostConstruct
+    public void reload() {
+        wal.recover(this::reset, this::readCheckpoint, this::replay);
+        int[] senders = new int[1024];
+        int[] addressees = new int[1024];
+        int size = 0;
+        for (int id = userIds.next(0); id >= 0; id = userIds.next(id)) {
+            UserEntry entry = users.get(id);
+            emails.put(entry.email, id);
+            logins.put(entry.login, id);
+            nextId.accumulateAndGet(id + 1, Math::max);
+            for (int friendId : entry.friends.toArray()) {
+                if (size == senders.length) {
+                    senders = Arrays.copyOf(senders, size * 2);
+                    addressees = Arrays.copyOf(addressees, size * 2);
+                }
+                senders[size] = id;
+                addressees[size++] = friendId;
+            }
+        }
+        friendGraph.load(senders, addressees, size);
+        log.info("Пользователи восстановлены из журнала, пользователей: " + userIds.size()
+                + ", связей дружбы: " + size);
+        scheduleCheckpoints();
+    }
+
+    /**
+     * Удаляет всех пользователей вместе с журналом и контрольной точкой, id снова начинаются с 1.
+     */
+    public void clear() {
+        wal.clear(this::reset);
+        reload();
+    }
+
+    /**
+     * Запускает периодическую запись контрольных точек после первого восстановления, один раз: точка,
+     * записанная до него, заменила бы журнал пустым состоянием. По той же причине close() без восстановления
+     * точку не пишет.
+     */
+    private void scheduleCheckpoints() {
+        if (recovered.compareAndSet(false, true) && checkpoints != null) {
+            checkpoints.scheduleWithFixedDelay(this::checkpoint, checkpointIntervalMillis, checkpointIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Сбрасывает состояние перед восстановлением. Вызывается журналом под блокировкой контрольных точек.
+     */
+    private void reset() {
+        users.clear();
+        userIds.clear();
+        emails.clear();
+        logins.clear();
+        nextId.set(1);
+    }
+
+    /**
+     * Записывает контрольную точку журнала, после чего поколения журнала до нее удаляются.
+     */
+    public void checkpoint() {
+        try {
+            wal.checkpoint(out -> {
+                out.writeInt(nextId.get());
+                users.forEach((id, entry) -> {
+                    try {
+                        out.writeBoolean(true);
+                        writeUser(out, id, entry);
+                        WriteAheadLog.writeIds(out, entry.friends.toArray());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                out.writeBoolean(false);
+            });
+        } catch (RuntimeException e) {
+            // исключение остановило бы периодическую запись контрольных точек
+            log.error("Не удалось записать контрольную точку пользователей", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (checkpoints != null) {
+            checkpoints.shutdownNow();
+        }
+        if (recovered.get()) {
+            checkpoint();
+        }
+        wal.close();
+    }
+
+    @Override
+    public void add(User user) {
+        if (user.getEmail() == null || user.getLogin() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Не указан email или логин");
+        }
+        if (emails.putIfAbsent(user.getEmail(), PENDING) != null) {
+            log.warn("Такой пользователь уже есть");
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, DUPLICATE_USER);
+        }
+        if (logins.putIfAbsent(user.getLogin(), PENDING) != null) {
+            emails.remove(user.getEmail(), PENDING);
+            log.warn("Такой пользователь уже есть");
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, DUPLICATE_USER);
+        }
+        int userId = nextId.getAndIncrement();
+        emails.put(user.getEmail(), userId);
+        logins.put(user.getLogin(), userId);
+        UserEntry entry = new UserEntry(user);
+        Lock lock = users.lock(userId).writeLock();
+        lock.lock();
+        try {
+            wal.append(USER_PUT, out -> writeUser(out, userId, entry));
+            users.putLocked(userId, entry);
+            userIds.add(userId);
+        } catch (RuntimeException e) {
+            emails.remove(user.getEmail(), userId);
+            logins.remove(user.getLogin(), userId);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        user.setId(userId);
+    }
+
+    /**
+     * Добавляет пользователей по одному: в памяти пачка не экономит ни запросов, ни транзакций.
+     */
+    @Override
+    public List<String> addUsers(List<User> users) {
+        List<String> errors = new ArrayList<>(Collections.nCopies(users.size(), null));
+        for (int i = 0; i < users.size(); i++) {
+            try {
+                add(users.get(i));
+            } catch (ResponseStatusException e) {
+                errors.set(i, e.getReason());
+            }
+        }
+        return errors;
+    }
+
+    public void delete(User user) {
+    }
+
+    @Override
+    public void update(User user) {
+        if (user.getId() == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id=" + user.getId() + " нет");
+        }
+        if (user.getEmail() == null || user.getLogin() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Не указан email или логин");
+        }
+        int userId = user.getId();
+        Lock lock = users.lock(userId).writeLock();
+        lock.lock();
+        try {
+            UserEntry entry = users.getLocked(userId);
+            if (entry == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id=" + userId + " нет");
+            }
+            boolean emailClaimed = claim(emails, user.getEmail(), entry.email, userId);
+            boolean loginClaimed = false;
+            UserEntry updated = new UserEntry(user);
+            updated.friends = entry.friends;
+            try {
+                loginClaimed = claim(logins, user.getLogin(), entry.login, userId);
+                wal.append(USER_PUT, out -> writeUser(out, userId, updated));
+            } catch (RuntimeException e) {
+                if (emailClaimed) {
+                    emails.remove(user.getEmail(), userId);
+                }
+                if (loginClaimed) {
+                    logins.remove(user.getLogin(), userId);
+                }
+                throw e;
+            }
+            if (emailClaimed) {
+                emails.remove(entry.email, userId);
+            }
+            if (loginClaimed) {
+                logins.remove(entry.login, userId);
+            }
+            users.putLocked(userId, updated);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<User> getUsersList() {
+        List<User> list = new ArrayList<>(userIds.size());
+        for (int id = userIds.next(0); id >= 0; id = userIds.next(id)) {
+            list.add(readUser(id, true));
+        }
+        return list;
+    }
+
+    @Override
+    public List<User> getUsersPage(Integer after, Integer limit) {
+        List<User> page = new ArrayList<>(Math.min(limit, userIds.size()));
+        for (int id = userIds.next(after); id >= 0 && page.size() < limit; id = userIds.next(id)) {
+            page.add(readUser(id, true));
+        }
+        return page;
+    }
+
+    @Override
+    public void exportUsers(Consumer<User> consumer) {
+        for (int id = userIds.next(0); id >= 0; id = userIds.next(id)) {
+            consumer.accept(readUser(id, true));
+        }
+    }
+
+    @Override
+    public void addFriend(Integer userId, Integer friendId) throws ResponseStatusException {
+        if (!contains(userId)) {
+            String message = "Ошибка добавления в друзья!" +
+                    " Невозможно добавиться в друзья к пользователю с несуществующим id= " + userId;
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        if (!contains(friendId)) {
+            String message = "Ошибка добавления в друзья!" +
+                    " Невозможно добавить в друзья несуществующего пользователя с id=" + friendId;
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        if (userId.equals(friendId)) {
+            String message = "Ошибка запроса добавления в друзья." +
+                    " Невозможно добавиться в друзья самому к себе";
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, message);
+        }
+        Lock lock = users.lock(userId).writeLock();
+        lock.lock();
+        try {
+            UserEntry entry = users.getLocked(userId);
+            if (entry.friends.contains(friendId)) {
+                String message = "Ошибка запроса добавления в друзья." +
+                        " Невозможно добавить в друзья пользователя который уже в друзьях";
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, message);
+            }
+            wal.append(FRIEND_ADD, out -> writeFriendship(out, userId, friendId));
+            entry.friends.add(friendId);
+            friendGraph.add(userId, friendId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteFriend(Integer userId, Integer friendId) throws ResponseStatusException {
+        if (!contains(userId)) {
+            String message = "Ошибка удаления из друзей!" +
+                    " Невозможно удалиться из друзей несуществующего пользователя с id=" + userId;
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        if (!contains(friendId)) {
+            String message = "Ошибка удаления из друзей!" +
+                    " Невозможно удалить из друзей несуществующего пользователя с id=" + friendId;
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        Lock lock = users.lock(userId).writeLock();
+        lock.lock();
+        try {
+            UserEntry entry = users.getLocked(userId);
+            if (!entry.friends.contains(friendId)) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        "Лайка от пользователя с id=" + userId + " у фильма с id=" + friendId + " нет");
+            }
+            wal.append(FRIEND_REMOVE, out -> writeFriendship(out, userId, friendId));
+            entry.friends.remove(friendId);
+            friendGraph.remove(userId, friendId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<User> getCommonFriends(Integer userId, Integer friendId) throws ResponseStatusException {
+        if (!contains(userId)) {
+            String message = "Ошибка запроса списка общих друзей!" +
+                    " Невозможно получить список друзей несуществующего пользователя с id=" + userId;
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        if (!contains(friendId)) {
+            String message = "Ошибка запроса списка общих друзей!" +
+                    " Невозможно получить список друзей несуществующего пользователя с id=" + friendId;
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        return getUsers(friendGraph.commonFriends(userId, friendId));
+    }
+
+    @Override
+    public List<User> getFriends(Integer friendId) {
+        if (!contains(friendId)) {
+            String message = "Ошибка запроса списка друзей!" +
+                    " Невозможно получить список друзей несуществующего пользователя с id=" + friendId;
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        return getUsers(friendGraph.friends(friendId));
+    }
+
+    @Override
+    public List<User> getRecommendations(Integer userId, Integer count) {
+        if (!contains(userId)) {
+            String message = "Ошибка запроса рекомендаций!" +
+                    " Невозможно получить рекомендации для несуществующего пользователя с id=" + userId;
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, message);
+        }
+        return getUsers(friendGraph.recommend(userId, count).stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    @Override
+    public List<User> getSimilarUsers(Integer userId, Integer count) {
+        if (!contains(userId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id=" + userId + " нет");
+        }
+        return getUsers(tastes.similar(userId, count).stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    @Override
+    public User getUser(Integer userId) throws ResponseStatusException {
+        User user = userId == null ? null : readUser(userId, true);
+        if (user == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователя с id= " + userId + " не существует");
+        }
+        return user;
+    }
+
+    @Override
+    public boolean contains(Integer userId) {
+        return userIds.contains(userId);
+    }
+
+    /**
+     * Пользователи без друзей в порядке переданных id. Несуществующие id пропускаются.
+     */
+    public List<User> getUsers(int[] ids) {
+        List<User> list = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            User user = readUser(id, false);
+            if (user != null) {
+                list.add(user);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Занимает за userId новое значение email или логина, если оно отличается от прежнего.
+     * Возвращает true, если значение занято этим вызовом и прежнее надо освободить.
+     */
+    private boolean claim(Map<String, Integer> claims, String value, String previous, int userId) {
+        if (value.equals(previous)) {
+            return false;
+        }
+        Integer owner = claims.putIfAbsent(value, userId);
+        if (owner != null && owner != userId) {
+            log.warn("Email или логин заняты другим пользователем");
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, DUPLICATE_USER);
+        }
+        return owner == null;
+    }
+
+    /**
+     * Копия пользователя с id или null, если его нет. С withFriends - вместе с друзьями, у которых друзей нет.
+     */
+    private User readUser(int id, boolean withFriends) {
+        int[] friends;
+        User user;
+        Lock lock = users.lock(id).readLock();
+        lock.lock();
+        try {
+            UserEntry entry = users.getLocked(id);
+            if (entry == null) {
+                return null;
+            }
+            user = entry.toUser(id);
+            friends = withFriends ? entry.friends.toArray() : new int[0];
+        } finally {
+            lock.unlock();
+        }
+        user.getFriends().addAll(getUsers(friends));
+        return user;
+    }
+
+    private void readCheckpoint(DataInput in) throws IOException {
+        nextId.set(in.readInt());
+        while (in.readBoolean()) {
+            int id = in.readInt();
+            UserEntry entry = readEntry(in);
+            entry.friends = new IdSet();
+            for (int friendId : WriteAheadLog.readIds(in)) {
+                entry.friends.add(friendId);
+            }
+            users.put(id, entry);
+            userIds.add(id);
+        }
+    }
+
+    /**
+     * Применяет запись журнала. Повторное применение уже учтенной в контрольной точке записи ничего не меняет.
+     */
+    private void replay(int type, DataInput in) throws IOException {
+        if (type == USER_PUT) {
+            int id = in.readInt();
+            UserEntry entry = readEntry(in);
+            UserEntry previous = users.get(id);
+            entry.friends = previous == null ? new IdSet() : previous.friends;
+            users.put(id, entry);
+            userIds.add(id);
+        } else if (type == FRIEND_ADD || type == FRIEND_REMOVE) {
+            int userId = in.readInt();
+            int friendId = in.readInt();
+            UserEntry entry = users.get(userId);
+            if (entry != null && type == FRIEND_ADD) {
+                entry.friends.add(friendId);
+            } else if (entry != null) {
+                entry.friends.remove(friendId);
+            }
+        } else {
+            throw new IllegalStateException("Неизвестный тип записи журнала пользователей: " + type);
+        }
+    }
+
+    private static void writeUser(DataOutput out, int id, UserEntry entry) throws IOException {
+        out.writeInt(id);
+        WriteAheadLog.writeString(out, entry.email);
+        WriteAheadLog.writeString(out, entry.login);
+        WriteAheadLog.writeString(out, entry.name);
+        WriteAheadLog.writeDate(out, entry.birthday);
+    }
+
+    private static UserEntry readEntry(DataInput in) throws IOException {
+        UserEntry entry = new UserEntry();
+        entry.email = WriteAheadLog.readString(in);
+        entry.login = WriteAheadLog.readString(in);
+        entry.name = WriteAheadLog.readString(in);
+        entry.birthday = WriteAheadLog.readDate(in);
+        return entry;
+    }
+
+    private static void writeFriendship(DataOutput out, int userId, int friendId) throws IOException {
+        out.writeInt(userId);
+        out.writeInt(friendId);
+    }
+
+    /**
+     * Изменяемая запись пользователя. Читается и меняется только под блокировкой полосы его id.
+     */
+    private static class UserEntry {
+        private String email;
+        private String login;
+        private String name;
+        private LocalDate birthday;
+        private IdSet friends = new IdSet();
+
+        private UserEntry() {
+        }
+
+        private UserEntry(User user) {
+            email = user.getEmail();
+            login = user.getLogin();
+            name = user.getName();
+            birthday = user.getBirthday();
+        }
+
+        private User toUser(int id) {
+            return User.builder()
+                    .id(id)
+                    .email(email)
+                    .login(login)
+                    .name(name)
+                    .birthday(birthday)
+                    .build();
+        }
+    }
+}
@@ -3,17 +3,26 @@ package ru.yandex.practicum.filmorate.storage.user;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 public interface UserStorage {
     void add(User user);
 
+    /**
+     * Добавляет пачку пользователей. Возвращает ошибки в порядке переданного списка, null - пользователь добавлен.
+     */
+    List<String> addUsers(List<User> users);
+
     void delete(User user);
 
     void update(User user);
 
     List<User> getUsersList();
 
+    List<User> getUsersPage(Integer after, Integer limit);
+
+    void exportUsers(Consumer<User> consumer);
+
     void addFriend(Integer userId, Integer friendId);
 
     void deleteFriend(Integer userId, Integer friendId);
@@ -22,5 +31,17 @@ public interface UserStorage {
 
     List<User> getFriends(Integer friendId);
 
+    /**
+     * Друзья друзей пользователя, которые еще не у него в друзьях, по убыванию кол-ва общих друзей.
+     */
+    List<User> getRecommendations(Integer userId, Integer count);
+
+    /**
+     * Пользователи с похожими лайками по убыванию коэффициента Жаккара.
+     */
+    List<User> getSimilarUsers(Integer userId, Integer count);
+
     User getUser(Integer userId);
+
+    boolean contains(Integer userId);
 }
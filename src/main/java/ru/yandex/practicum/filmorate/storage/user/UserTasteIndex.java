@@ -0,0 +1,244 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.LikeIndex;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Пользователи с похожими вкусами по лайкам. Множество лайкнутых фильмов каждого пользователя сжимается
+ * в MinHash-сигнатуру из bands * rows значений: i-е значение - минимум h_i(filmId) по его фильмам,
+ * и вероятность совпадения i-х значений у двух пользователей равна коэффициенту Жаккара их множеств.
+ * Сигнатура режется на bands полос по rows значений, каждая полоса - ключ корзины (LSH).
+ * Кандидаты - пользователи хотя бы из одной общей корзины, поэтому поиск не перебирает всех;
+ * пара с коэффициентом Жаккара s попадает в кандидаты с вероятностью 1 - (1 - s^rows)^bands.
+ * Кандидаты сортируются по точному коэффициенту Жаккара.
+ * Лайк обновляет сигнатуру за O(bands * rows), удаление лайка пересчитывает ее по оставшимся фильмам.
+ * Пересборка и накат изменений во время нее - как в FilmSimilarityIndex.
+ */
+@Component
+public class UserTasteIndex implements LikeIndex {
+    private static final long PRIME = (1L << 31) - 1;
+    private static final int[] EMPTY = new int[0];
+    private final int bands;
+    private final int rows;
+    private final long[] multipliers;
+    private final long[] increments;
+    private Map<Integer, int[]> likesByUser = new HashMap<>();
+    private Map<Integer, int[]> signatures = new HashMap<>();
+    private Map<Long, Set<Integer>> buckets = new HashMap<>();
+    private List<long[]> pending;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public UserTasteIndex(@Value("${filmorate.users.similar.bands:32}") int bands,
+                          @Value("${filmorate.users.similar.rows:3}") int rows) {
+        this.bands = bands;
+        this.rows = rows;
+        // фиксированное зерно: сигнатуры одинаковы на всех узлах и после перезапуска
+        Random random = new Random(31);
+        multipliers = new long[bands * rows];
+        increments = new long[bands * rows];
+        for (int i = 0; i < multipliers.length; i++) {
+            multipliers[i] = 1 + (long) (random.nextDouble() * (PRIME - 1));
+            increments[i] = (long) (random.nextDouble() * PRIME);
+        }
+    }
+
+    @Override
+    public void beginLoad() {
+        lock.writeLock().lock();
+        try {
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void load(int[] userIds, int[] filmIds, int size) {
+        Map<Integer, int[]> newLikes = new HashMap<>();
+        Map<Integer, int[]> newSignatures = new HashMap<>();
+        Map<Long, Set<Integer>> newBuckets = new HashMap<>();
+        for (int from = 0; from < size; ) {
+            int to = from;
+            while (to < size && userIds[to] == userIds[from]) {
+                to++;
+            }
+            int[] films = Arrays.copyOfRange(filmIds, from, to);
+            Arrays.sort(films);
+            int[] signature = signature(films);
+            newLikes.put(userIds[from], films);
+            newSignatures.put(userIds[from], signature);
+            for (int band = 0; band < bands; band++) {
+                newBuckets.computeIfAbsent(bucket(signature, band), key -> new HashSet<>()).add(userIds[from]);
+            }
+            from = to;
+        }
+        lock.writeLock().lock();
+        try {
+            likesByUser = newLikes;
+            signatures = newSignatures;
+            buckets = newBuckets;
+            if (pending != null) {
+                pending.forEach(change -> apply((int) change[0], (int) change[1], change[2] > 0));
+                pending = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addLike(int userId, int filmId) {
+        change(userId, filmId, true);
+    }
+
+    @Override
+    public void removeLike(int userId, int filmId) {
+        change(userId, filmId, false);
+    }
+
+    /**
+     * Первые count пользователей из общих с userId корзин по убыванию коэффициента Жаккара,
+     * при равенстве - по возрастанию id. Пользователи без общих лайков не возвращаются.
+     */
+    public List<Integer> similar(int userId, int count) {
+        lock.readLock().lock();
+        try {
+            int[] signature = signatures.get(userId);
+            if (signature == null) {
+                return new ArrayList<>();
+            }
+            Set<Integer> candidates = new HashSet<>();
+            for (int band = 0; band < bands; band++) {
+                candidates.addAll(buckets.getOrDefault(bucket(signature, band), Set.of()));
+            }
+            candidates.remove(userId);
+            int[] films = likesByUser.get(userId);
+            Map<Integer, Double> scores = new HashMap<>();
+            for (Integer candidate : candidates) {
+                double score = jaccard(films, likesByUser.get(candidate));
+                if (score > 0) {
+                    scores.put(candidate, score);
+                }
+            }
+            List<Integer> similar = new ArrayList<>(scores.keySet());
+            similar.sort(Comparator.comparing((Integer id) -> -scores.get(id)).thenComparing(id -> id));
+            return new ArrayList<>(similar.subList(0, Math.min(count, similar.size())));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static double jaccard(int[] first, int[] second) {
+        int i = 0;
+        int j = 0;
+        int common = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                common++;
+                i++;
+                j++;
+            }
+        }
+        int union = first.length + second.length - common;
+        return union == 0 ? 0 : (double) common / union;
+    }
+
+    private void change(int userId, int filmId, boolean like) {
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                pending.add(new long[]{userId, filmId, like ? 1 : 0});
+            }
+            apply(userId, filmId, like);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(int userId, int filmId, boolean like) {
+        int[] films = likesByUser.getOrDefault(userId, EMPTY);
+        int position = Arrays.binarySearch(films, filmId);
+        if (like == (position >= 0)) {
+            return;
+        }
+        int[] newFilms;
+        int[] signature = signatures.get(userId);
+        int[] newSignature;
+        if (like) {
+            position = -position - 1;
+            newFilms = new int[films.length + 1];
+            System.arraycopy(films, 0, newFilms, 0, position);
+            newFilms[position] = filmId;
+            System.arraycopy(films, position, newFilms, position + 1, films.length - position);
+            newSignature = signature == null ? signature(newFilms) : signature.clone();
+            for (int i = 0; i < newSignature.length; i++) {
+                newSignature[i] = Math.min(newSignature[i], hash(i, filmId));
+            }
+        } else {
+            newFilms = new int[films.length - 1];
+            System.arraycopy(films, 0, newFilms, 0, position);
+            System.arraycopy(films, position + 1, newFilms, position, films.length - position - 1);
+            // минимум нельзя уменьшить обратно, поэтому сигнатура считается заново
+            newSignature = newFilms.length == 0 ? null : signature(newFilms);
+        }
+        for (int band = 0; band < bands; band++) {
+            long oldBucket = signature == null ? 0 : bucket(signature, band);
+            long newBucket = newSignature == null ? 0 : bucket(newSignature, band);
+            if (signature != null && (newSignature == null || oldBucket != newBucket)) {
+                Set<Integer> users = buckets.get(oldBucket);
+                users.remove(userId);
+                if (users.isEmpty()) {
+                    buckets.remove(oldBucket);
+                }
+            }
+            if (newSignature != null && (signature == null || oldBucket != newBucket)) {
+                buckets.computeIfAbsent(newBucket, key -> new HashSet<>()).add(userId);
+            }
+        }
+        if (newFilms.length == 0) {
+            likesByUser.remove(userId);
+            signatures.remove(userId);
+        } else {
+            likesByUser.put(userId, newFilms);
+            signatures.put(userId, newSignature);
+        }
+    }
+
+    private int[] signature(int[] films) {
+        int[] signature = new int[multipliers.length];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (int filmId : films) {
+            for (int i = 0; i < signature.length; i++) {
+                signature[i] = Math.min(signature[i], hash(i, filmId));
+            }
+        }
+        return signature;
+    }
+
+    private int hash(int i, int filmId) {
+        return (int) ((multipliers[i] * filmId + increments[i]) % PRIME);
+    }
+
+    /**
+     * Ключ корзины: номер полосы и ее значения. Случайное совпадение ключей разных полос дает
+     * лишнего кандидата, которого отсеет точный коэффициент Жаккара.
+     */
+    private long bucket(int[] signature, int band) {
+        long key = band;
+        for (int i = band * rows; i < (band + 1) * rows; i++) {
+            key = key * 0x9E3779B97F4A7C15L + signature[i];
+        }
+        return key;
+    }
+}
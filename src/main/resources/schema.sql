@@ -16,9 +16,15 @@ CREATE TABLE IF NOT EXISTS film (
                                     release_date date,
                                     duration integer,
                                     mpa integer REFERENCES mpa (mpa_id) ON DELETE RESTRICT,
+                                    like_count integer NOT NULL DEFAULT 0,
+                                    fingerprint char(64) NOT NULL,
                                     CONSTRAINT valid_duration CHECK (duration > 0)
 );
 
+CREATE INDEX IF NOT EXISTS film_like_count_idx ON film (like_count DESC, film_id);
+
+CREATE UNIQUE INDEX IF NOT EXISTS film_fingerprint_idx ON film (fingerprint);
+
 CREATE TABLE IF NOT EXISTS person (
                                     person_id integer GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
                                     email varchar NOT NULL,
@@ -28,12 +34,18 @@ CREATE TABLE IF NOT EXISTS person (
                                     CONSTRAINT valid_login CHECK (login <> ' ')
 );
 
+CREATE UNIQUE INDEX IF NOT EXISTS person_email_idx ON person (email);
+
+CREATE UNIQUE INDEX IF NOT EXISTS person_login_idx ON person (login);
+
 CREATE TABLE IF NOT EXISTS likes (
                                     person_id integer REFERENCES person (person_id) ON DELETE CASCADE ,
                                     film_id integer REFERENCES film (film_id) ON DELETE CASCADE ,
                                     PRIMARY KEY (person_id, film_id)
 );
 
+CREATE INDEX IF NOT EXISTS likes_film_idx ON likes (film_id, person_id);
+
 CREATE TABLE IF NOT EXISTS genre (
                                     genre_id integer GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
                                     genre_name varchar NOT NULL
@@ -50,4 +62,14 @@ CREATE TABLE IF NOT EXISTS friend_request (
                                     addressee_id integer REFERENCES person (person_id) ON DELETE CASCADE,
                                     CONSTRAINT validate_request CHECK (sender_id <> addressee_id),
                                     PRIMARY KEY (sender_id, addressee_id)
-);
\ No newline at end of file
+);
+
+CREATE INDEX IF NOT EXISTS friend_request_addressee_idx ON friend_request (addressee_id, sender_id);
+
+DROP TABLE IF EXISTS schema_generation;
+
+CREATE TABLE schema_generation (
+                                    generation bigint NOT NULL
+);
+
+INSERT INTO schema_generation (generation) VALUES (CAST(RAND() * 9007199254740991 AS BIGINT));
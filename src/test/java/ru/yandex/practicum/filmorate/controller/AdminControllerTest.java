@@ -0,0 +1,44 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.yandex.practicum.filmorate.model.SnapshotResult;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "filmorate.snapshot.path=target/snapshot-${random.uuid}.bin")
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+@Sql(scripts = {"file:src/main/resources/schema.sql"})
+public class AdminControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    public void exportSnapshot() throws Exception {
+        //given
+        //when
+        String body = mockMvc.perform(post("/admin/snapshot")).andDo(print())
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        SnapshotResult result = objectMapper.readValue(body, SnapshotResult.class);
+        //then
+        assertEquals(5, result.getRows().get("mpa"), "Некорректное кол-во рейтингов MPA в снимке");
+        assertEquals(0, result.getRows().get("film"), "Некорректное кол-во фильмов в снимке");
+        assertEquals(Files.size(Paths.get(result.getPath())), result.getBytes(), "Некорректный размер снимка");
+    }
+}
@@ -3,6 +3,7 @@ package ru.yandex.practicum.filmorate.controller;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.bytebuddy.utility.RandomString;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
@@ -12,10 +13,14 @@ import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Like;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -38,11 +43,18 @@ public class FilmControllerTest {
     private MockMvc mockMvc;
     @Autowired
     private ObjectMapper objectMapper;
+    @Autowired
+    private List<Reloadable> storages;
 
     private static final LocalDate date = LocalDate.of(1895, 12, 29);
 
     private static final LocalDate brithDay = LocalDate.of(1993, 10, 27);
 
+    @BeforeEach
+    public void reloadStorages() {
+        storages.forEach(Reloadable::reload);
+    }
+
     @Test
     public void addAndGetFilm() throws Exception {
         //given
@@ -549,4 +561,460 @@ public class FilmControllerTest {
                                 , Film.class).getGenres(), "Фильмы не совпадают")
                 );
     }
+
+    @Test
+    public void getFilmsPage() throws Exception {
+        //given
+        Film film1 = Film.builder().name("film1").description("description")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        Film film2 = Film.builder().name("film2").description("description2")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        Film film3 = Film.builder().name("film3").description("description3")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        //when
+        mockMvc.perform(post("/films").content(objectMapper.writeValueAsString(film1))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(post("/films").content(objectMapper.writeValueAsString(film2))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(post("/films").content(objectMapper.writeValueAsString(film3))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(get("/films?limit=2")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        result -> assertEquals(new Page<>(List.of(film1, film2), 2), objectMapper.readValue(
+                                result.getResponse().getContentAsString(), new TypeReference<Page<Film>>(){}),
+                                "Фильмы не совпадают")
+                );
+        //when
+        mockMvc.perform(get("/films?after=2&limit=2")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        result -> assertEquals(new Page<>(List.of(film3), null), objectMapper.readValue(
+                                result.getResponse().getContentAsString(), new TypeReference<Page<Film>>(){}),
+                                "Фильмы не совпадают")
+                );
+    }
+
+    @Test
+    public void addFilmsBatch() throws Exception {
+        //given
+        Film film1 = Film.builder().name("film1").description("description")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        film1.getGenres().add(new Genre(1, null));
+        Film film2 = Film.builder().name("film2").description("description2")
+                .releaseDate(date).duration(60).mpa(new Mpa(2, null)).build();
+        Film noName = Film.builder().name("").description("description3")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        Film unknownMpa = Film.builder().name("film4").description("description4")
+                .releaseDate(date).duration(60).mpa(new Mpa(100, null)).build();
+        Film tooOld = Film.builder().name("film5").description("description5")
+                .releaseDate(LocalDate.of(1800, 1, 1)).duration(60).mpa(new Mpa(1, null)).build();
+        List<Film> batch = List.of(film1, film2, noName, film1, unknownMpa, tooOld);
+        //when
+        mockMvc.perform(post("/films/batch").content(objectMapper.writeValueAsString(batch))
+                        .contentType(MediaType.APPLICATION_JSON)).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.succeeded").value(2),
+                        jsonPath("$.failed").value(4),
+                        jsonPath("$.items[0].id").value(1),
+                        jsonPath("$.items[1].id").value(2),
+                        jsonPath("$.items[2].error").value("Название не может быть пустым"),
+                        jsonPath("$.items[3].error").value("Такой фильм уже есть"),
+                        jsonPath("$.items[4].error").isNotEmpty(),
+                        jsonPath("$.items[5].error").value("Дата релиза не может быть раньше 28.12.1895")
+                );
+        //when
+        mockMvc.perform(get("/films/1")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.name").value("film1"),
+                        jsonPath("$.genres[0].id").value(1)
+                );
+        //when
+        mockMvc.perform(post("/films/batch").content(objectMapper.writeValueAsString(List.of(film2)))
+                        .contentType(MediaType.APPLICATION_JSON)).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.succeeded").value(0),
+                        jsonPath("$.items[0].error").value("Такой фильм уже есть")
+                );
+    }
+
+    @Test
+    public void addLikesBatch() throws Exception {
+        //given
+        Film film1 = Film.builder().name("film1").description("description")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        Film film2 = Film.builder().name("film2").description("description2")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        User user1 = User.builder().email("simple@email.ru").login("user_login").name("name").birthday(brithDay)
+                .build();
+        User user2 = User.builder().email("simple2@email.ru").login("user_login2").name("name").birthday(brithDay)
+                .build();
+        mockMvc.perform(post("/films/batch").content(objectMapper.writeValueAsString(List.of(film1, film2)))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user1))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user2))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(put("/films/1/like/1")).andDo(print());
+        List<Like> likes = List.of(new Like(1, 1), new Like(1, 2), new Like(2, 2), new Like(1, 2),
+                new Like(3, 1), new Like(1, 3));
+        //when
+        mockMvc.perform(post("/films/likes/batch").content(objectMapper.writeValueAsString(likes))
+                        .contentType(MediaType.APPLICATION_JSON)).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.succeeded").value(2),
+                        jsonPath("$.skipped").value(2),
+                        jsonPath("$.failed").value(2),
+                        jsonPath("$.items[0].error").value("Лайк уже есть"),
+                        jsonPath("$.items[1].error").isEmpty(),
+                        jsonPath("$.items[3].error").value("Лайк уже есть"),
+                        jsonPath("$.items[4].error").value("Пользователя с id=3 нет"),
+                        jsonPath("$.items[5].error").value("Фильма с id=3 нет")
+                );
+        //when
+        mockMvc.perform(get("/films/popular?count=2")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$[0].id").value(2),
+                        jsonPath("$[0].likesCount").value(2),
+                        jsonPath("$[1].likesCount").value(1)
+                );
+    }
+
+    @Test
+    public void getSimilarAndRecommendedFilms() throws Exception {
+        //given
+        List<Film> films = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            films.add(Film.builder().name("film" + i).description("description")
+                    .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build());
+        }
+        mockMvc.perform(post("/films/batch").content(objectMapper.writeValueAsString(films))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        for (int i = 1; i <= 3; i++) {
+            User user = User.builder().email("simple" + i + "@email.ru").login("user_login" + i).name("name")
+                    .birthday(brithDay).build();
+            mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user))
+                    .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        }
+        List<Like> likes = List.of(new Like(1, 1), new Like(1, 2), new Like(2, 1), new Like(2, 2),
+                new Like(3, 1), new Like(3, 4));
+        mockMvc.perform(post("/films/likes/batch").content(objectMapper.writeValueAsString(likes))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(put("/films/3/like/1")).andDo(print());
+        //when
+        mockMvc.perform(get("/films/1/similar")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(3),
+                        jsonPath("$[0].id").value(2),
+                        jsonPath("$[1].id").value(3),
+                        jsonPath("$[2].id").value(4)
+                );
+        //when
+        mockMvc.perform(get("/users/2/recommended-films")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(2),
+                        jsonPath("$[0].id").value(3),
+                        jsonPath("$[1].id").value(4)
+                );
+        //when
+        mockMvc.perform(delete("/films/3/like/1")).andDo(print());
+        mockMvc.perform(get("/films/1/similar?count=5")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(2),
+                        jsonPath("$[0].id").value(2),
+                        jsonPath("$[1].id").value(4)
+                );
+        mockMvc.perform(get("/users/2/recommended-films")).andDo(print())
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].id").value(4)
+                );
+        //when
+        mockMvc.perform(get("/films/9/similar")).andDo(print())
+                //then
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/users/9/recommended-films")).andDo(print())
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getSimilarUsers() throws Exception {
+        //given
+        List<Film> films = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            films.add(Film.builder().name("film" + i).description("description")
+                    .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build());
+        }
+        mockMvc.perform(post("/films/batch").content(objectMapper.writeValueAsString(films))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        for (int i = 1; i <= 4; i++) {
+            User user = User.builder().email("simple" + i + "@email.ru").login("user_login" + i).name("name")
+                    .birthday(brithDay).build();
+            mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user))
+                    .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        }
+        List<Like> likes = List.of(new Like(1, 1), new Like(1, 2), new Like(2, 1), new Like(2, 2),
+                new Like(3, 3));
+        mockMvc.perform(post("/films/likes/batch").content(objectMapper.writeValueAsString(likes))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(put("/films/2/like/3")).andDo(print());
+        //when
+        mockMvc.perform(get("/users/1/similar")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(2),
+                        jsonPath("$[0].id").value(2),
+                        jsonPath("$[1].id").value(3)
+                );
+        //when
+        mockMvc.perform(delete("/films/2/like/3")).andDo(print());
+        mockMvc.perform(get("/users/1/similar")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].id").value(2)
+                );
+        mockMvc.perform(get("/users/4/similar")).andDo(print())
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(0)
+                );
+        mockMvc.perform(get("/users/9/similar")).andDo(print())
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void searchFilms() throws Exception {
+        //given
+        Film film1 = Film.builder().name("Матрица").description("Фильм про хакера")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        Film film2 = Film.builder().name("Хакеры").description("Фильм")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        Film film3 = Film.builder().name("Другое").description("Почти как матрица")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        mockMvc.perform(post("/films").content(objectMapper.writeValueAsString(film1))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(post("/films/batch").content(objectMapper.writeValueAsString(List.of(film2, film3)))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        //when
+        mockMvc.perform(get("/films/search").param("q", "матр")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(2),
+                        jsonPath("$[0].id").value(1),
+                        jsonPath("$[1].id").value(3)
+                );
+        //when
+        Film updated = Film.builder().id(1).name("Нео").description("Фильм про хакера")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        mockMvc.perform(put("/films").content(objectMapper.writeValueAsString(updated))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(get("/films/search").param("q", "матр")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].id").value(3)
+                );
+        mockMvc.perform(get("/films/search").param("q", " ")).andDo(print())
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getPopularFilmsByGenreAndYear() throws Exception {
+        //given
+        Film film1 = Film.builder().name("film1").description("description")
+                .releaseDate(LocalDate.of(2000, 5, 1)).duration(60).mpa(new Mpa(1, null)).build();
+        film1.getGenres().add(new Genre(1, null));
+        Film film2 = Film.builder().name("film2").description("description")
+                .releaseDate(LocalDate.of(2001, 5, 1)).duration(60).mpa(new Mpa(1, null)).build();
+        film2.getGenres().add(new Genre(1, null));
+        film2.getGenres().add(new Genre(2, null));
+        Film film3 = Film.builder().name("film3").description("description")
+                .releaseDate(LocalDate.of(2000, 7, 1)).duration(60).mpa(new Mpa(1, null)).build();
+        film3.getGenres().add(new Genre(2, null));
+        mockMvc.perform(post("/films/batch").content(objectMapper.writeValueAsString(List.of(film1, film2, film3)))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        User user = User.builder().email("simple@email.ru").login("user_login").name("name").birthday(brithDay)
+                .build();
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(put("/films/3/like/1")).andDo(print());
+        //when
+        mockMvc.perform(get("/films/popular?genreId=2")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(2),
+                        jsonPath("$[0].id").value(3),
+                        jsonPath("$[1].id").value(2)
+                );
+        //when
+        mockMvc.perform(get("/films/popular?year=2000")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(2),
+                        jsonPath("$[0].id").value(3),
+                        jsonPath("$[1].id").value(1)
+                );
+        //when
+        mockMvc.perform(get("/films/popular?genreId=1&year=2000&count=5")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].id").value(1)
+                );
+        mockMvc.perform(get("/films/popular?genreId=99")).andDo(print())
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getCommonFilms() throws Exception {
+        //given
+        List<Film> films = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            films.add(Film.builder().name("film" + i).description("description")
+                    .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build());
+        }
+        mockMvc.perform(post("/films/batch").content(objectMapper.writeValueAsString(films))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        for (int i = 1; i <= 3; i++) {
+            User user = User.builder().email("simple" + i + "@email.ru").login("user_login" + i).name("name")
+                    .birthday(brithDay).build();
+            mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user))
+                    .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        }
+        List<Like> likes = List.of(new Like(1, 1), new Like(1, 2), new Like(1, 3), new Like(2, 2),
+                new Like(2, 3));
+        mockMvc.perform(post("/films/likes/batch").content(objectMapper.writeValueAsString(likes))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(put("/films/4/like/2")).andDo(print());
+        //when
+        mockMvc.perform(get("/users/1/films/common/2")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.films.length()").value(2),
+                        jsonPath("$.films[0].id").value(2),
+                        jsonPath("$.films[1].id").value(3),
+                        jsonPath("$.jaccard").value(0.5)
+                );
+        //when
+        mockMvc.perform(delete("/films/3/like/2")).andDo(print());
+        mockMvc.perform(get("/users/2/films/common/1")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.films.length()").value(1),
+                        jsonPath("$.films[0].id").value(2),
+                        jsonPath("$.jaccard").value(0.25)
+                );
+        mockMvc.perform(get("/users/1/films/common/3")).andDo(print())
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.films.length()").value(0),
+                        jsonPath("$.jaccard").value(0.0)
+                );
+        mockMvc.perform(get("/users/1/films/common/9")).andDo(print())
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getFilmsPageIncorrectLimit() throws Exception {
+        //when
+        mockMvc.perform(get("/films?limit=0")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isBadRequest(),
+                        result -> assertFalse(result.getResponse().getContentAsString().isBlank()
+                                , "Тело ответа с сообщением пустое")
+                );
+    }
+
+    @Test
+    public void exportFilms() throws Exception {
+        //given
+        Film film1 = Film.builder().name("film1").description("description")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        Film film2 = Film.builder().name("film2").description("description2")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        mockMvc.perform(post("/films").content(objectMapper.writeValueAsString(film1))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(post("/films").content(objectMapper.writeValueAsString(film2))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        //when
+        MvcResult export = mockMvc.perform(get("/films/export")).andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(export)).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON),
+                        result -> {
+                            String[] lines = result.getResponse().getContentAsString().split("\n");
+                            assertEquals(2, lines.length, "Некорректное кол-во строк");
+                            assertEquals(film1, objectMapper.readValue(lines[0], Film.class), "Фильмы не совпадают");
+                            assertEquals(film2, objectMapper.readValue(lines[1], Film.class), "Фильмы не совпадают");
+                        }
+                );
+    }
+
+    @Test
+    public void filmLikesCountAndLikesPage() throws Exception {
+        //given
+        Film film1 = Film.builder().name("film1").description("description")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        User user1 = User.builder().email("simple@email.ru").login("user_login").name("name").birthday(brithDay)
+                .build();
+        User user2 = User.builder().email("simple2@email.ru").login("user_login2").name("name").birthday(brithDay)
+                .build();
+        mockMvc.perform(post("/films").content(objectMapper.writeValueAsString(film1))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user1))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user2))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(put("/films/1/like/1")).andDo(print());
+        mockMvc.perform(put("/films/1/like/2")).andDo(print());
+        //when
+        mockMvc.perform(get("/films/1")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.likesCount").value(2),
+                        jsonPath("$.likes").doesNotExist()
+                );
+        //when
+        mockMvc.perform(get("/films/1/likes?limit=1")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        result -> assertEquals(new Page<>(List.of(user1), 1), objectMapper.readValue(
+                                result.getResponse().getContentAsString(), new TypeReference<Page<User>>(){}),
+                                "Пользователи не совпадают")
+                );
+    }
 }
@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.yandex.practicum.filmorate.storage.film.FilmMemoryStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserMemoryStorage;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Те же проверки, что в FilmControllerTest, на хранилищах в памяти.
+ */
+@SpringBootTest(properties = {"filmorate.storage.engine=memory", "filmorate.storage.memory.path=target/memory-storage"})
+public class MemoryFilmControllerTest extends FilmControllerTest {
+    @Autowired
+    private FilmMemoryStorage films;
+    @Autowired
+    private UserMemoryStorage users;
+    @Autowired
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void clearMemoryStorages() {
+        users.clear();
+        films.clear();
+    }
+
+    @Test
+    public void snapshotIsUnavailable() throws Exception {
+        //when
+        //then
+        mockMvc.perform(post("/admin/snapshot")).andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,24 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import ru.yandex.practicum.filmorate.storage.film.FilmMemoryStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserMemoryStorage;
+
+/**
+ * Те же проверки, что в UserControllerTest, на хранилищах в памяти.
+ */
+@SpringBootTest(properties = {"filmorate.storage.engine=memory", "filmorate.storage.memory.path=target/memory-storage"})
+public class MemoryUserControllerTest extends UserControllerTest {
+    @Autowired
+    private FilmMemoryStorage films;
+    @Autowired
+    private UserMemoryStorage users;
+
+    @BeforeEach
+    public void clearMemoryStorages() {
+        users.clear();
+        films.clear();
+    }
+}
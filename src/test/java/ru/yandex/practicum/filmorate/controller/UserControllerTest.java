@@ -2,6 +2,7 @@ package ru.yandex.practicum.filmorate.controller;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
@@ -11,7 +12,9 @@ import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.web.servlet.MockMvc;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -32,9 +35,16 @@ public class UserControllerTest {
     private MockMvc mockMvc;
     @Autowired
     private ObjectMapper objectMapper;
+    @Autowired
+    private List<Reloadable> storages;
 
     private static final LocalDate brithDay = LocalDate.of(1993, 10, 27);
 
+    @BeforeEach
+    public void reloadStorages() {
+        storages.forEach(Reloadable::reload);
+    }
+
     @Test
     public void addAndGetUser() throws Exception {
         //given
@@ -85,6 +95,40 @@ public class UserControllerTest {
                 );
     }
 
+    @Test
+    public void addUserWithTakenEmailOrLogin() throws Exception {
+        //given
+        User user1 = User.builder().email("simple@email.ru").login("user_login").name("name").birthday(brithDay)
+                .build();
+        User user2 = User.builder().email("simple2@email.ru").login("user_login2").name("name2").birthday(brithDay)
+                .build();
+        User sameEmail = User.builder().email("simple@email.ru").login("user_login3").name("name3").birthday(brithDay)
+                .build();
+        User sameLogin = User.builder().email("simple3@email.ru").login("user_login").name("name3").birthday(brithDay)
+                .build();
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user1))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user2))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        //when
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(sameEmail))
+                        .contentType(MediaType.APPLICATION_JSON)).andDo(print())
+                //then
+                .andExpect(status().isBadRequest());
+        //when
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(sameLogin))
+                        .contentType(MediaType.APPLICATION_JSON)).andDo(print())
+                //then
+                .andExpect(status().isBadRequest());
+        //when
+        user2.setId(2);
+        user2.setLogin("user_login");
+        mockMvc.perform(put("/users").content(objectMapper.writeValueAsString(user2))
+                        .contentType(MediaType.APPLICATION_JSON)).andDo(print())
+                //then
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void addIncorrectEmailUser() throws Exception {
         //given
@@ -480,4 +524,137 @@ public class UserControllerTest {
                                 .getContentAsString(), new TypeReference<ArrayList<User>>() {}).size())
                 );
     }
+
+    @Test
+    public void importUsersCsv() throws Exception {
+        //given
+        User user1 = User.builder().email("simple@email.ru").login("user_login").name("name").birthday(brithDay)
+                .build();
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user1))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        String csv = "login,email,birthday,name\n" +
+                "user_login2,simple2@email.ru,1993-10-27,\"Name, with comma\"\n" +
+                "user_login3,simple3@email.ru,1993-10-27,\n" +
+                "user_login,simple4@email.ru,1993-10-27,taken login\n" +
+                "user_login5,this-incorrect?.email@,1993-10-27,bad email\n" +
+                "user_login6,simple6@email.ru,27.10.1993,bad date\n";
+        //when
+        mockMvc.perform(post("/users/import").content(csv).contentType("text/csv")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.succeeded").value(2),
+                        jsonPath("$.failed").value(3),
+                        jsonPath("$.items[0].index").value(2),
+                        jsonPath("$.items[0].error").value("Пользователь с таким email или логином уже есть"),
+                        jsonPath("$.items[1].index").value(3),
+                        jsonPath("$.items[1].error").value("некорректный email"),
+                        jsonPath("$.items[2].index").value(4)
+                );
+        //when
+        mockMvc.perform(get("/users")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(3),
+                        jsonPath("$[1].name").value("Name, with comma"),
+                        jsonPath("$[2].name").value("user_login3")
+                );
+    }
+
+    @Test
+    public void importUsersNdjson() throws Exception {
+        //given
+        User user1 = User.builder().email("simple@email.ru").login("user_login").name("name").birthday(brithDay)
+                .build();
+        User user2 = User.builder().email("simple2@email.ru").login("user_login2").name("").birthday(brithDay)
+                .build();
+        String ndjson = objectMapper.writeValueAsString(user1) + "\n" + objectMapper.writeValueAsString(user2)
+                + "\n{not json}\n" + objectMapper.writeValueAsString(user1) + "\n";
+        //when
+        mockMvc.perform(post("/users/import").content(ndjson).contentType(MediaType.APPLICATION_NDJSON))
+                .andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.succeeded").value(2),
+                        jsonPath("$.failed").value(2),
+                        jsonPath("$.items[0].index").value(2),
+                        jsonPath("$.items[1].index").value(3)
+                );
+        //when
+        mockMvc.perform(get("/users/2")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.name").value("user_login2")
+                );
+    }
+
+    @Test
+    public void getRecommendations() throws Exception {
+        //given
+        for (int i = 1; i <= 5; i++) {
+            User user = User.builder().email("simple" + i + "@email.ru").login("user_login" + i).name("user name")
+                    .birthday(brithDay).build();
+            mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user))
+                    .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        }
+        mockMvc.perform(put("/users/1/friends/2")).andDo(print());
+        mockMvc.perform(put("/users/1/friends/3")).andDo(print());
+        mockMvc.perform(put("/users/2/friends/5")).andDo(print());
+        mockMvc.perform(put("/users/2/friends/4")).andDo(print());
+        mockMvc.perform(put("/users/3/friends/4")).andDo(print());
+        mockMvc.perform(put("/users/3/friends/1")).andDo(print());
+        //when
+        mockMvc.perform(get("/users/1/recommendations")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(2),
+                        jsonPath("$[0].id").value(4),
+                        jsonPath("$[1].id").value(5)
+                );
+        //when
+        mockMvc.perform(get("/users/1/recommendations?count=1")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].id").value(4)
+                );
+        //when
+        mockMvc.perform(get("/users/9/recommendations")).andDo(print())
+                //then
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getUsersPage() throws Exception {
+        //given
+        User user1 = User.builder().email("simple@email.ru").login("user_login").name("user name")
+                .birthday(brithDay).build();
+        User user2 = User.builder().email("simple@email2.ru").login("user_login2").name("user name")
+                .birthday(brithDay).build();
+        //when
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user1))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(post("/users").content(objectMapper.writeValueAsString(user2))
+                .contentType(MediaType.APPLICATION_JSON)).andDo(print());
+        mockMvc.perform(get("/users?limit=1")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        result -> assertEquals(new Page<>(List.of(user1), 1), objectMapper.readValue(
+                                result.getResponse().getContentAsString(), new TypeReference<Page<User>>() {}))
+                );
+        //when
+        mockMvc.perform(get("/users?after=1&limit=2")).andDo(print())
+                //then
+                .andExpectAll(
+                        status().isOk(),
+                        result -> assertEquals(new Page<>(List.of(user2), null), objectMapper.readValue(
+                                result.getResponse().getContentAsString(), new TypeReference<Page<User>>() {}))
+                );
+    }
 }
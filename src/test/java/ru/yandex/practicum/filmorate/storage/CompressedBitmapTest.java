@@ -0,0 +1,77 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+public class CompressedBitmapTest {
+
+    @Test
+    public void matchesTreeSetOnSparseAndDenseBlocks() {
+        //given
+        Random random = new Random(5);
+        CompressedBitmap first = new CompressedBitmap();
+        CompressedBitmap second = new CompressedBitmap();
+        Set<Integer> firstSet = new TreeSet<>();
+        Set<Integer> secondSet = new TreeSet<>();
+        //when
+        for (int i = 0; i < 60_000; i++) {
+            // первый блок плотный (битовая карта), остальные редкие (массивы)
+            int value = random.nextInt(4) == 0 ? random.nextInt(1 << 20) : random.nextInt(1 << 14);
+            if (random.nextInt(5) == 0) {
+                assertEquals(firstSet.remove(value), first.remove(value), "Некорректный результат remove");
+            } else {
+                assertEquals(firstSet.add(value), first.add(value), "Некорректный результат add");
+            }
+            int other = random.nextInt(3) == 0 ? random.nextInt(1 << 20) : random.nextInt(1 << 14);
+            secondSet.add(other);
+            second.add(other);
+        }
+        for (int value = 0; value < 1 << 14; value += 2) {
+            // удаления возвращают плотный блок обратно в массив
+            firstSet.remove(value);
+            first.remove(value);
+        }
+        //then
+        Set<Integer> common = new TreeSet<>(firstSet);
+        common.retainAll(secondSet);
+        assertEquals(firstSet.size(), first.cardinality(), "Некорректная мощность");
+        assertArrayEquals(common.stream().mapToInt(Integer::intValue).toArray(), first.and(second),
+                "Некорректное пересечение");
+        assertArrayEquals(first.and(second), second.and(first), "Пересечение зависит от порядка");
+        assertTrue(first.contains(firstSet.iterator().next()), "Значение не найдено");
+    }
+
+    @Test
+    public void intersectionOfLargeLikeSets() {
+        //given
+        Random random = new Random(9);
+        CompressedBitmap first = new CompressedBitmap();
+        CompressedBitmap second = new CompressedBitmap();
+        while (first.cardinality() < 50_000) {
+            first.add(1 + random.nextInt(500_000));
+        }
+        while (second.cardinality() < 50_000) {
+            second.add(1 + random.nextInt(500_000));
+        }
+        //when
+        long best = Long.MAX_VALUE;
+        int[] common = null;
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            common = first.and(second);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        //then
+        log.info("Пересечение двух множеств по 50000 лайков: " + common.length + " общих за " + best / 1000 + " мкс");
+        for (int filmId : common) {
+            assertTrue(first.contains(filmId) && second.contains(filmId), "Лишнее значение в пересечении");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.jdbc.Sql;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.SnapshotResult;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {"filmorate.snapshot.path=target/snapshot-${random.uuid}.bin", "filmorate.batch.size=2"})
+@AutoConfigureTestDatabase
+@Sql(scripts = {"file:src/main/resources/schema.sql"})
+public class DatabaseSnapshotTest {
+    private static final LocalDate date = LocalDate.of(2000, 1, 1);
+
+    @Autowired
+    private DatabaseSnapshot snapshot;
+    @Autowired
+    @Qualifier("FilmDbStorage")
+    private FilmStorage filmStorage;
+    @Autowired
+    @Qualifier("UserDbStorage")
+    private UserStorage userStorage;
+    @Autowired
+    private List<Reloadable> storages;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void reloadStorages() {
+        storages.forEach(Reloadable::reload);
+    }
+
+    @Test
+    public void snapshotRestoresDatabase() {
+        //given
+        fillDatabase();
+        List<Film> films = filmStorage.getFilmsList();
+        List<User> users = userStorage.getUsersList();
+        //when
+        SnapshotResult exported = snapshot.export();
+        wipe();
+        SnapshotResult loaded = snapshot.load();
+        //then
+        assertEquals(Map.of("mpa", 5, "genre", 6, "film", 3, "person", 3, "genre_films", 3, "likes", 4,
+                "friend_request", 2), exported.getRows(), "Некорректное кол-во выгруженных строк");
+        assertEquals(exported.getRows(), loaded.getRows(), "Загружено не то, что выгружено");
+        assertEquals(films, filmStorage.getFilmsList(), "Фильмы не восстановлены");
+        assertEquals(users, userStorage.getUsersList(), "Пользователи не восстановлены");
+        assertEquals(List.of(1, 2), filmStorage.getPopularFilms(2, null, null).stream().map(Film::getId)
+                .collect(Collectors.toList()), "Рейтинг не перестроен");
+        assertEquals(List.of(2), filmStorage.getSimilarFilms(1, 10).stream().map(Film::getId)
+                .collect(Collectors.toList()), "Индексы лайков не перестроены");
+        filmStorage.add(Film.builder().name("film4").description("description").releaseDate(date).duration(60)
+                .mpa(new Mpa(1, null)).build());
+        assertEquals(4, filmStorage.getFilm(4).getId(), "Счетчик id не продолжен после загрузки");
+    }
+
+    @Test
+    public void loadRejectsNonEmptyDatabase() {
+        //given
+        fillDatabase();
+        snapshot.export();
+        //when
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> snapshot.load());
+        //then
+        assertEquals("Снимок загружается только в пустую базу", exception.getMessage(),
+                "Некорректное сообщение об ошибке");
+    }
+
+    @Test
+    public void corruptedSnapshotIsNotLoaded() throws IOException {
+        //given
+        fillDatabase();
+        SnapshotResult exported = snapshot.export();
+        try (RandomAccessFile file = new RandomAccessFile(exported.getPath(), "rw")) {
+            file.seek(exported.getBytes() - 10);
+            file.write(file.read() ^ 1);
+        }
+        wipe();
+        //when
+        assertThrows(IllegalStateException.class, () -> snapshot.load(), "Битый снимок загружен");
+        //then
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM film", Integer.class),
+                "Часть битого снимка осталась в базе");
+    }
+
+    private void fillDatabase() {
+        for (int i = 1; i <= 3; i++) {
+            userStorage.add(User.builder().email("user" + i + "@email.ru").login("login" + i).name("Имя " + i)
+                    .birthday(date.plusDays(i)).build());
+            Film film = Film.builder().name("Фильм " + i).description(i == 3 ? null : "описание " + i)
+                    .releaseDate(date.minusYears(i)).duration(60 + i).mpa(new Mpa(i, null)).build();
+            film.getGenres().add(new Genre(i, null));
+            filmStorage.add(film);
+        }
+        jdbcTemplate.update("INSERT INTO genre_films (film_id, genre_id) VALUES (1, 2)");
+        jdbcTemplate.update("DELETE FROM genre_films WHERE film_id = 3");
+        filmStorage.addLike(1, 1);
+        filmStorage.addLike(2, 1);
+        filmStorage.addLike(1, 2);
+        filmStorage.addLike(3, 3);
+        userStorage.addFriend(1, 2);
+        userStorage.addFriend(3, 1);
+        storages.forEach(Reloadable::reload);
+    }
+
+    private void wipe() {
+        jdbcTemplate.update("DELETE FROM film");
+        jdbcTemplate.update("DELETE FROM person");
+        storages.forEach(Reloadable::reload);
+    }
+}
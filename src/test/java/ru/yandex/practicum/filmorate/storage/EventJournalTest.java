@@ -0,0 +1,116 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void recordsSurviveReopen() throws IOException {
+        //given
+        Path path = directory.resolve("journal.bin");
+        EventJournal journal = new EventJournal(true, path.toString(), 4);
+        //when
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i, journal.append(EventJournal.LIKE_ADD, i, i * 10), "Некорректный номер записи");
+        }
+        journal.append(EventJournal.FRIEND_REMOVE, 3, 4);
+        journal.close();
+        EventJournal reopened = new EventJournal(true, path.toString(), 4);
+        List<long[]> records = replay(reopened);
+        //then
+        assertEquals(11, reopened.size(), "Записи потеряны после переоткрытия");
+        assertArrayEquals(new long[]{1, EventJournal.LIKE_ADD, 1, 10}, records.get(0), "Некорректная первая запись");
+        assertArrayEquals(new long[]{11, EventJournal.FRIEND_REMOVE, 3, 4}, records.get(10),
+                "Некорректная последняя запись");
+        assertEquals(12, reopened.append(EventJournal.LIKE_REMOVE, 1, 10), "Нумерация не продолжилась");
+        reopened.close();
+    }
+
+    @Test
+    public void tornTailIsDiscarded() throws IOException {
+        //given
+        Path path = directory.resolve("journal.bin");
+        EventJournal journal = new EventJournal(true, path.toString(), 16);
+        for (int i = 1; i <= 5; i++) {
+            journal.append(EventJournal.LIKE_ADD, i, i);
+        }
+        journal.close();
+        //when
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            // порча поля id в четвертой записи, как при недописанной записи
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 4L * EventJournal.RECORD_SIZE + 13);
+        }
+        EventJournal reopened = new EventJournal(true, path.toString(), 16);
+        //then
+        assertEquals(3, reopened.size(), "Испорченная запись и хвост за ней не отброшены");
+        assertEquals(4, reopened.append(EventJournal.LIKE_ADD, 7, 7), "Испорченная запись не перезаписана");
+        reopened.close();
+        assertEquals(4, new EventJournal(true, path.toString(), 16).size(), "Старый хвост снова стал валидным");
+    }
+
+    @Test
+    public void clearInvalidatesRecords() throws IOException {
+        //given
+        Path path = directory.resolve("journal.bin");
+        EventJournal journal = new EventJournal(true, path.toString(), 16);
+        journal.append(EventJournal.FRIEND_ADD, 1, 2);
+        journal.append(EventJournal.FRIEND_ADD, 2, 3);
+        //when
+        journal.clear();
+        journal.append(EventJournal.FRIEND_ADD, 5, 6);
+        journal.close();
+        EventJournal reopened = new EventJournal(true, path.toString(), 16);
+        //then
+        assertEquals(1, reopened.size(), "Записи до очистки не отброшены");
+        assertArrayEquals(new long[]{1, EventJournal.FRIEND_ADD, 5, 6}, replay(reopened).get(0),
+                "Некорректная запись после очистки");
+        reopened.close();
+    }
+
+    @Test
+    public void seedEndsWithMarker() throws IOException {
+        //given
+        EventJournal journal = new EventJournal(true, directory.resolve("journal.bin").toString(), 2);
+        //when
+        journal.seed(EventJournal.LIKE_ADD, new int[]{1, 1, 2}, new int[]{5, 6, 5}, 3, EventJournal.LIKES_SEEDED);
+        List<long[]> records = replay(journal);
+        //then
+        assertEquals(4, records.size(), "Некорректное кол-во записей");
+        assertArrayEquals(new long[]{3, EventJournal.LIKE_ADD, 2, 5}, records.get(2), "Некорректная запись");
+        assertEquals(EventJournal.LIKES_SEEDED, records.get(3)[1], "Нет отметки начального состояния");
+        journal.close();
+    }
+
+    @Test
+    public void disabledJournalWritesNothing() throws IOException {
+        //given
+        Path path = directory.resolve("journal.bin");
+        EventJournal journal = new EventJournal(false, path.toString(), 16);
+        //when
+        long sequence = journal.append(EventJournal.LIKE_ADD, 1, 1);
+        journal.close();
+        //then
+        assertEquals(0, sequence, "Выключенный журнал выдал номер записи");
+        assertEquals(0, journal.size(), "Выключенный журнал содержит записи");
+        assertFalse(path.toFile().exists(), "Выключенный журнал создал файл");
+    }
+
+    private static List<long[]> replay(EventJournal journal) {
+        List<long[]> records = new ArrayList<>();
+        journal.replay((sequence, type, first, second) -> records.add(new long[]{sequence, type, first, second}));
+        return records;
+    }
+}
@@ -0,0 +1,157 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import javax.sql.DataSource;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {"filmorate.journal.enabled=true",
+        "filmorate.journal.path=target/journal-${random.uuid}.bin", "filmorate.journal.segment-records=64"})
+@AutoConfigureTestDatabase
+@Sql(scripts = {"file:src/main/resources/schema.sql"})
+public class JournalWarmStartTest {
+    private static final LocalDate date = LocalDate.of(2000, 1, 1);
+
+    @Autowired
+    @Qualifier("FilmDbStorage")
+    private FilmStorage filmStorage;
+    @Autowired
+    @Qualifier("UserDbStorage")
+    private UserStorage userStorage;
+    @Autowired
+    private List<Reloadable> storages;
+    @Autowired
+    private EventJournal journal;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    public void reloadStorages() {
+        storages.forEach(Reloadable::reload);
+    }
+
+    @Test
+    public void indexesAreRestoredFromJournal() {
+        //given
+        for (int i = 1; i <= 3; i++) {
+            userStorage.add(User.builder().email("user" + i + "@email.ru").login("login" + i).name("name")
+                    .birthday(date).build());
+            filmStorage.add(Film.builder().name("film" + i).description("description")
+                    .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build());
+        }
+        userStorage.addFriend(1, 2);
+        userStorage.addFriend(2, 3);
+        userStorage.addFriend(1, 3);
+        userStorage.deleteFriend(1, 3);
+        filmStorage.addLike(1, 1);
+        filmStorage.addLike(1, 2);
+        filmStorage.addLike(2, 1);
+        filmStorage.addLike(2, 3);
+        filmStorage.deleteLike(2, 3);
+        //when
+        // индексы после перезапуска строятся только из журнала: таблицы связей очищены в обход хранилищ
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM friend_request");
+        storages.forEach(Reloadable::reload);
+        //then
+        assertEquals(List.of(3), ids(userStorage.getRecommendations(1, 10)), "Граф друзей не восстановлен");
+        assertEquals(List.of(1), filmIds(filmStorage.getSimilarFilms(2, 10)), "Индекс лайков не восстановлен");
+        assertEquals(List.of(1), filmIds(filmStorage.getCommonFilms(1, 2).getFilms()),
+                "Удаленный лайк восстановлен из журнала");
+    }
+
+    @Test
+    public void clearedJournalIsSeededFromTables() {
+        //given
+        for (int i = 1; i <= 2; i++) {
+            userStorage.add(User.builder().email("user" + i + "@email.ru").login("login" + i).name("name")
+                    .birthday(date).build());
+            filmStorage.add(Film.builder().name("film" + i).description("description")
+                    .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build());
+        }
+        filmStorage.addLike(1, 1);
+        filmStorage.addLike(1, 2);
+        //when
+        journal.clear();
+        jdbcTemplate.update("DELETE FROM likes WHERE film_id = 2");
+        storages.forEach(Reloadable::reload);
+        //then
+        assertEquals(List.of(), filmIds(filmStorage.getSimilarFilms(1, 10)), "Индекс лайков не перечитан из таблиц");
+        assertTrue(journal.size() > 0, "Начальное состояние не записано в журнал");
+    }
+
+    @Test
+    public void journalIsDiscardedAfterSchemaRecreated() {
+        //given
+        addUsersAndFilms(3);
+        userStorage.addFriend(1, 2);
+        userStorage.addFriend(2, 3);
+        filmStorage.addLike(1, 1);
+        filmStorage.addLike(2, 1);
+        //when
+        // перезапуск приложения: schema.sql пересоздает таблицы, id выдаются заново
+        new ResourceDatabasePopulator(new FileSystemResource("src/main/resources/schema.sql")).execute(dataSource);
+        storages.forEach(Reloadable::reload);
+        addUsersAndFilms(3);
+        //then
+        assertEquals(List.of(), ids(userStorage.getRecommendations(1, 10)), "Граф друзей восстановлен из старого журнала");
+        assertEquals(List.of(), filmIds(filmStorage.getSimilarFilms(1, 10)), "Индекс лайков восстановлен из старого журнала");
+    }
+
+    @Test
+    public void rolledBackChangesAreNotJournaled() {
+        //given
+        addUsersAndFilms(2);
+        long size = journal.size();
+        //when
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            filmStorage.addLike(1, 1);
+            userStorage.addFriend(1, 2);
+            status.setRollbackOnly();
+        });
+        //then
+        assertEquals(size, journal.size(), "Откаченные изменения записаны в журнал");
+        assertEquals(List.of(), ids(userStorage.getFriends(1)), "Откаченная дружба попала в граф друзей");
+    }
+
+    private void addUsersAndFilms(int count) {
+        for (int i = 1; i <= count; i++) {
+            userStorage.add(User.builder().email("user" + i + "@email.ru").login("login" + i).name("name")
+                    .birthday(date).build());
+            filmStorage.add(Film.builder().name("film" + i).description("description")
+                    .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build());
+        }
+    }
+
+    private static List<Integer> ids(List<User> users) {
+        return users.stream().map(User::getId).collect(Collectors.toList());
+    }
+
+    private static List<Integer> filmIds(List<Film> films) {
+        return films.stream().map(Film::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,25 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StripedIntMapTest {
+
+    @Test
+    public void largeStripesKeepShortProbes() {
+        //given
+        StripedIntMap<Integer> map = new StripedIntMap<>(16);
+        Integer value = 1;
+        //when
+        // около 75 тысяч ключей на полосу: таблица каждой полосы больше 65536 ячеек
+        for (int key = 1; key <= 1_200_000; key++) {
+            map.put(key, value);
+        }
+        //then
+        assertEquals(1_200_000, map.size(), "Некорректное кол-во записей");
+        assertEquals(value, map.get(777_777), "Запись не найдена");
+        int probe = map.longestProbe();
+        assertTrue(probe < 256, "Слишком длинное пробирование: " + probe);
+    }
+}
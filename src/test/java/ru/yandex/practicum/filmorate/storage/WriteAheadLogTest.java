@@ -0,0 +1,187 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteAheadLogTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void recordsSurviveReopen() {
+        //given
+        WriteAheadLog wal = new WriteAheadLog(directory, "test", false);
+        wal.recover(() -> { }, in -> fail("Контрольной точки еще нет"), (type, in) -> fail("Записей еще нет"));
+        for (int i = 1; i <= 5; i++) {
+            int value = i * 10;
+            assertEquals(i, wal.append(i, out -> out.writeInt(value)), "Некорректный номер записи");
+        }
+        wal.close();
+        //when
+        List<int[]> records = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(directory, "test", false);
+        reopened.recover(() -> { }, in -> fail("Контрольной точки нет"), (type, in) -> records.add(new int[]{type, in.readInt()}));
+        //then
+        assertEquals(5, records.size(), "Записи потеряны после переоткрытия");
+        assertArrayEquals(new int[]{5, 50}, records.get(4), "Некорректная последняя запись");
+        assertEquals(6, reopened.append(1, out -> out.writeInt(60)), "Нумерация не продолжилась");
+        reopened.close();
+    }
+
+    @Test
+    public void tornTailIsDiscarded() throws IOException {
+        //given
+        WriteAheadLog wal = new WriteAheadLog(directory, "test", false);
+        wal.recover(() -> { }, in -> { }, (type, in) -> { });
+        for (int i = 1; i <= 3; i++) {
+            int value = i;
+            wal.append(1, out -> out.writeInt(value));
+        }
+        wal.close();
+        Path file = directory.resolve("test-1.wal");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // недописанная третья запись: запись - 16 байт заголовка, 4 байта данных и 4 байта CRC
+            channel.truncate(2 * 24 + 10);
+        }
+        //when
+        List<Integer> values = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(directory, "test", false);
+        reopened.recover(() -> { }, in -> { }, (type, in) -> values.add(in.readInt()));
+        //then
+        assertEquals(List.of(1, 2), values, "Недописанная запись не отброшена");
+        assertEquals(2 * 24, Files.size(file), "Хвост файла не обрезан");
+        assertEquals(3, reopened.append(1, out -> out.writeInt(3)), "Нумерация не продолжилась после хвоста");
+        reopened.close();
+    }
+
+    @Test
+    public void checkpointReplacesCoveredGenerations() throws IOException {
+        //given
+        List<Integer> state = new ArrayList<>();
+        WriteAheadLog wal = new WriteAheadLog(directory, "test", false);
+        wal.recover(() -> { }, in -> { }, (type, in) -> { });
+        for (int i = 1; i <= 3; i++) {
+            int value = i;
+            wal.append(1, out -> out.writeInt(value));
+            state.add(value);
+        }
+        //when
+        assertTrue(wal.checkpoint(out -> {
+            // запись 4 сделана во время записи точки: в точку она попадает, в журнале остается после нее
+            wal.append(1, data -> data.writeInt(4));
+            state.add(4);
+            out.writeInt(state.size());
+            for (int value : state) {
+                out.writeInt(value);
+            }
+        }), "Контрольная точка не записана");
+        wal.close();
+        List<Integer> recovered = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(directory, "test", false);
+        reopened.recover(() -> { }, in -> {
+            for (int size = in.readInt(); size > 0; size--) {
+                recovered.add(in.readInt());
+            }
+        }, (type, in) -> {
+            int value = in.readInt();
+            if (!recovered.contains(value)) {
+                recovered.add(value);
+            }
+        });
+        //then
+        assertEquals(List.of(1, 2, 3, 4), recovered, "Состояние не восстановлено из точки и журнала");
+        try (Stream<Path> files = Files.list(directory)) {
+            assertFalse(files.anyMatch(path -> path.getFileName().toString().equals("test-1.wal")),
+                    "Поколение, покрытое точкой, не удалено");
+        }
+        assertEquals(5, reopened.append(1, out -> out.writeInt(5)), "Нумерация не продолжилась после точки");
+        reopened.close();
+    }
+
+    @Test
+    public void checkpointWaitsForRecovery() throws InterruptedException {
+        //given
+        WriteAheadLog wal = new WriteAheadLog(directory, "test", false);
+        wal.recover(() -> { }, in -> { }, (type, in) -> { });
+        for (int i = 1; i <= 3; i++) {
+            int value = i;
+            wal.append(1, out -> out.writeInt(value));
+        }
+        wal.close();
+        List<Integer> state = new ArrayList<>();
+        AtomicBoolean written = new AtomicBoolean();
+        WriteAheadLog reopened = new WriteAheadLog(directory, "test", false);
+        Thread checkpointer = new Thread(() -> written.set(reopened.checkpoint(out -> {
+            out.writeInt(state.size());
+            for (int value : state) {
+                out.writeInt(value);
+            }
+        })));
+        //when
+        // точка запрошена, когда состояние уже сброшено, а журнал еще не проигран
+        reopened.recover(() -> {
+            state.clear();
+            checkpointer.start();
+        }, in -> { }, (type, in) -> state.add(in.readInt()));
+        checkpointer.join();
+        reopened.close();
+        List<Integer> recovered = new ArrayList<>();
+        WriteAheadLog restarted = new WriteAheadLog(directory, "test", false);
+        restarted.recover(() -> { }, in -> {
+            for (int size = in.readInt(); size > 0; size--) {
+                recovered.add(in.readInt());
+            }
+        }, (type, in) -> recovered.add(in.readInt()));
+        //then
+        assertTrue(written.get(), "Контрольная точка не записана");
+        assertEquals(List.of(1, 2, 3), recovered, "Точка записана до окончания восстановления");
+        restarted.close();
+    }
+
+    @Test
+    public void concurrentSyncedAppendsAreAllRecovered() throws InterruptedException {
+        //given
+        WriteAheadLog wal = new WriteAheadLog(directory, "test", true);
+        wal.recover(() -> { }, in -> { }, (type, in) -> { });
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int writer = t;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    int value = writer * 100 + i;
+                    wal.append(1, out -> out.writeInt(value));
+                }
+            }));
+        }
+        //when
+        writers.forEach(Thread::start);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        wal.close();
+        List<Integer> values = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(directory, "test", true);
+        reopened.recover(() -> { }, in -> { }, (type, in) -> values.add(in.readInt()));
+        //then
+        Collections.sort(values);
+        assertEquals(800, values.size(), "Записи потеряны");
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(i, values.get(i), "Запись потеряна или повторена");
+        }
+        assertEquals(801, reopened.append(1, out -> out.writeInt(800)), "Нумерация не продолжилась");
+        reopened.close();
+    }
+}
@@ -0,0 +1,81 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Сравнивает скорость добавления фильмов по одному и пакетом. Результат пишется в лог в фильмах в секунду.
+ */
+@Slf4j
+@SpringBootTest
+@AutoConfigureTestDatabase
+@Sql(scripts = {"file:src/main/resources/schema.sql"})
+public class FilmBatchBenchmarkTest {
+    private static final int FILMS = 3000;
+    private static final LocalDate date = LocalDate.of(2000, 1, 1);
+
+    @Autowired
+    @Qualifier("FilmDbStorage")
+    private FilmStorage filmStorage;
+    @Autowired
+    private List<Reloadable> storages;
+
+    @BeforeEach
+    public void reloadStorages() {
+        storages.forEach(Reloadable::reload);
+    }
+
+    @Test
+    public void batchInsertIsFasterThanSingleInserts() {
+        //given
+        List<Film> single = makeFilms("single", FILMS);
+        List<Film> batch = makeFilms("batch", FILMS);
+        filmStorage.addFilms(makeFilms("warmup", 200));
+        //when
+        long start = System.nanoTime();
+        single.forEach(filmStorage::add);
+        long singleNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<String> errors = filmStorage.addFilms(batch);
+        long batchNanos = System.nanoTime() - start;
+        //then
+        log.info("Добавление по одному: " + throughput(singleNanos) + " фильмов/с, пакетом: "
+                + throughput(batchNanos) + " фильмов/с");
+        assertTrue(errors.stream().allMatch(error -> error == null), "Есть ошибки пакетной вставки");
+        assertEquals(2 * FILMS + 200, filmStorage.getFilmsList().size(), "Некорректное кол-во фильмов");
+        assertNotNull(batch.get(FILMS - 1).getId(), "Фильму не присвоен id");
+        assertTrue(batchNanos < singleNanos, "Пакетная вставка медленнее вставки по одному");
+    }
+
+    private long throughput(long nanos) {
+        return FILMS * 1_000_000_000L / Math.max(nanos, 1);
+    }
+
+    private List<Film> makeFilms(String prefix, int count) {
+        List<Film> films = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Film film = Film.builder().name(prefix + i).description("description")
+                    .releaseDate(date).duration(90).mpa(new Mpa(i % 5 + 1, null)).build();
+            film.getGenres().add(new Genre(i % 6 + 1, null));
+            film.getGenres().add(new Genre((i + 1) % 6 + 1, null));
+            films.add(film);
+        }
+        return films;
+    }
+}
@@ -0,0 +1,81 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FilmCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsedFilm() {
+        //given
+        FilmCache cache = new FilmCache(2, Duration.ZERO);
+        cache.put(film(1), cache.version(1));
+        cache.put(film(2), cache.version(2));
+        cache.get(1);
+        //when
+        cache.put(film(3), cache.version(3));
+        //then
+        assertNotNull(cache.get(1), "Недавно прочитанный фильм вытеснен");
+        assertNull(cache.get(2), "Давно не читанный фильм не вытеснен");
+        assertNotNull(cache.get(3), "Новый фильм не попал в кэш");
+        assertEquals(1, cache.getEvictions(), "Некорректное кол-во вытеснений");
+        assertEquals(3, cache.getHits(), "Некорректное кол-во попаданий");
+        assertEquals(1, cache.getMisses(), "Некорректное кол-во промахов");
+    }
+
+    @Test
+    public void expiredFilmIsMiss() throws InterruptedException {
+        //given
+        FilmCache cache = new FilmCache(10, Duration.ofMillis(1));
+        cache.put(film(1), cache.version(1));
+        //when
+        Thread.sleep(5);
+        //then
+        assertNull(cache.get(1), "Устаревший фильм возвращен из кэша");
+        assertEquals(0, cache.size(), "Устаревший фильм не удален из кэша");
+    }
+
+    @Test
+    public void invalidateRemovesFilm() {
+        //given
+        FilmCache cache = new FilmCache(10, Duration.ZERO);
+        cache.put(film(1), cache.version(1));
+        //when
+        cache.invalidate(1);
+        //then
+        assertNull(cache.get(1), "Фильм не удален из кэша");
+    }
+
+    @Test
+    public void putAfterInvalidateIsDropped() {
+        //given
+        FilmCache cache = new FilmCache(10, Duration.ZERO);
+        long version = cache.version(1);
+        //when
+        cache.invalidate(1);
+        cache.put(film(1), version);
+        //then
+        assertNull(cache.get(1), "Фильм, прочитанный до инвалидации, попал в кэш");
+    }
+
+    @Test
+    public void cachedFilmIsCopied() {
+        //given
+        FilmCache cache = new FilmCache(10, Duration.ZERO);
+        Film film = film(1);
+        cache.put(film, cache.version(1));
+        //when
+        film.setName("changed");
+        cache.get(1).setName("changed");
+        //then
+        assertEquals("film1", cache.get(1).getName(), "Изменение фильма попало в кэш");
+    }
+
+    private Film film(int id) {
+        return Film.builder().id(id).name("film" + id).build();
+    }
+}
@@ -0,0 +1,290 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@AutoConfigureTestDatabase
+@Sql(scripts = {"file:src/main/resources/schema.sql"})
+public class FilmDbStorageTest {
+    private static final AtomicInteger statements = new AtomicInteger();
+    private static final LocalDate date = LocalDate.of(2000, 1, 1);
+
+    @Autowired
+    @Qualifier("FilmDbStorage")
+    private FilmStorage filmStorage;
+    @Autowired
+    @Qualifier("UserDbStorage")
+    private UserStorage userStorage;
+    @Autowired
+    private FilmService filmService;
+    @Autowired
+    private List<Reloadable> storages;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    private int sequence;
+
+    @BeforeEach
+    public void reloadStorages() {
+        storages.forEach(Reloadable::reload);
+    }
+
+    @Test
+    public void getFilmsListQueryCountDoesNotDependOnCatalogSize() {
+        //given
+        addFilmsWithLikes(2);
+        int smallCatalogQueries = countStatements(() -> filmStorage.getFilmsList());
+        addFilmsWithLikes(20);
+        //when
+        int largeCatalogQueries = countStatements(() -> filmStorage.getFilmsList());
+        //then
+        assertEquals(smallCatalogQueries, largeCatalogQueries, "Кол-во запросов зависит от кол-ва фильмов");
+        assertEquals(2, largeCatalogQueries, "Фильмы и жанры должны загружаться двумя запросами");
+    }
+
+    @Test
+    public void getSortedFilmsQueryCountDoesNotDependOnCatalogSize() {
+        //given
+        addFilmsWithLikes(2);
+        int smallCatalogQueries = countStatements(() -> filmService.getSortedFilms(10, null, null));
+        addFilmsWithLikes(20);
+        //when
+        int largeCatalogQueries = countStatements(() -> filmService.getSortedFilms(10, null, null));
+        //then
+        assertEquals(smallCatalogQueries, largeCatalogQueries, "Кол-во запросов зависит от кол-ва фильмов");
+    }
+
+    @Test
+    public void getFilmLoadsGenresAndLikeCount() {
+        //given
+        addFilmsWithLikes(3);
+        //when
+        int queries = countStatements(() -> filmStorage.getFilm(1));
+        Film film = filmStorage.getFilm(1);
+        //then
+        assertEquals(2, queries, "Фильм и жанры должны загружаться двумя запросами");
+        assertEquals(3, film.getLikesCount(), "Некорректное кол-во лайков");
+        assertEquals(List.of(new Genre(1, "Комедия"), new Genre(2, "Драма")), List.copyOf(film.getGenres()),
+                "Жанры не совпадают");
+    }
+
+    @Test
+    public void getMostLikedFilmsMatchesPopularityIndex() {
+        //given
+        addFilmsWithLikes(5);
+        filmStorage.deleteLike(5, 1);
+        filmStorage.deleteLike(4, 1);
+        //when
+        List<Film> mostLiked = filmStorage.getMostLikedFilms(3, null, null);
+        //then
+        assertEquals(filmStorage.getPopularFilms(3, null, null), mostLiked, "Фильмы не совпадают");
+        assertEquals(List.of(2, 1, 3), List.of(mostLiked.get(0).getId(), mostLiked.get(1).getId(),
+                mostLiked.get(2).getId()), "Некорректный порядок фильмов");
+    }
+
+    @Test
+    public void filteredPopularFilmsMatchMostLiked() {
+        //given
+        Random random = new Random(3);
+        for (int i = 1; i <= 30; i++) {
+            User user = User.builder().email("user" + i + "@email.ru").login("login" + i).name("name")
+                    .birthday(date).build();
+            userStorage.add(user);
+            Film film = Film.builder().name("film" + i).description("description")
+                    .releaseDate(LocalDate.of(2000 + random.nextInt(3), 1 + random.nextInt(12), 1))
+                    .duration(60).mpa(new Mpa(1, null)).build();
+            film.getGenres().add(new Genre(1 + random.nextInt(6), null));
+            film.getGenres().add(new Genre(1 + random.nextInt(6), null));
+            filmStorage.add(film);
+        }
+        for (int i = 0; i < 200; i++) {
+            try {
+                filmStorage.addLike(1 + random.nextInt(30), 1 + random.nextInt(30));
+            } catch (ResponseStatusException e) {
+                // повторный лайк
+            }
+        }
+        Film moved = Film.builder().id(1).name("film1").description("description")
+                .releaseDate(LocalDate.of(2001, 6, 1)).duration(60).mpa(new Mpa(1, null)).build();
+        moved.getGenres().add(new Genre(6, null));
+        filmStorage.update(moved);
+        //then
+        for (Integer genreId : Arrays.asList(null, 1, 3, 6)) {
+            for (Integer year : Arrays.asList(null, 2000, 2001, 2005)) {
+                assertEquals(filmStorage.getMostLikedFilms(5, genreId, year),
+                        filmStorage.getPopularFilms(5, genreId, year),
+                        "Рейтинг жанра " + genreId + " и года " + year + " не совпадает с запросом");
+            }
+        }
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> filmStorage.getPopularFilms(5, 99, null));
+        assertEquals(HttpStatus.NOT_FOUND, e.getStatus(), "Неизвестный жанр должен давать 404");
+    }
+
+    @Test
+    public void addLikeChecksExistenceWithoutQueries() {
+        //given
+        addFilmsWithLikes(2);
+        //when
+        int queries = countStatements(() -> filmStorage.addLike(1, 2));
+        //then
+        assertEquals(2, queries, "Лайк должен записываться без проверочных запросов");
+        assertEquals(2, filmStorage.getFilm(2).getLikesCount(), "Некорректное кол-во лайков");
+    }
+
+    @Test
+    public void addDuplicateFilmFailsOnFingerprintIndex() {
+        //given
+        addFilmsWithLikes(2);
+        Film duplicate = Film.builder().name("film1").description("description")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        //when
+        int queries = countStatements(() -> assertThrows(ResponseStatusException.class,
+                () -> filmStorage.add(duplicate), "Дубль фильма добавлен"));
+        //then
+        assertEquals(1, queries, "Дубль должен отсекаться уникальным индексом без поиска по таблице");
+        assertEquals(2, filmStorage.getFilmsList().size(), "Некорректное кол-во фильмов");
+    }
+
+    @Test
+    public void updateFilmToDuplicateFails() {
+        //given
+        addFilmsWithLikes(2);
+        Film film = Film.builder().id(2).name("film1").description("description")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        //when
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> filmStorage.update(film),
+                "Фильм обновлен до дубля");
+        //then
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatus(), "Некорректный статус");
+        assertEquals("film2", filmStorage.getFilm(2).getName(), "Фильм изменился");
+    }
+
+    @Test
+    public void rolledBackChangesDoNotReachIndexes() {
+        //given
+        addFilmsWithLikes(3);
+        Film film = filmStorage.getFilm(3);
+        film.setName("переименованный");
+        //when
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            filmStorage.deleteLike(1, 1);
+            filmStorage.deleteLike(2, 1);
+            assertEquals("переименованный", filmStorage.update(film).getName(), "Возвращен фильм до изменения");
+            status.setRollbackOnly();
+        });
+        //then
+        assertEquals(List.of(1, 2, 3), Arrays.asList(filmStorage.getPopularFilms(3, null, null).stream()
+                .map(Film::getId).toArray(Integer[]::new)), "Откаченные лайки изменили рейтинг");
+        assertEquals(List.of(), filmStorage.searchFilms("переименованный", 10),
+                "Откаченное изменение попало в поисковый индекс");
+        assertEquals("film3", filmStorage.getFilm(3).getName(), "Откаченное изменение попало в кэш");
+    }
+
+    @Test
+    public void filmWithUnknownGenreIsNotAdded() {
+        //given
+        userStorage.add(User.builder().email("user@email.ru").login("login").name("name").birthday(date).build());
+        Film film = Film.builder().name("film").description("description")
+                .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+        film.getGenres().add(new Genre(999, null));
+        //when
+        assertThrows(RuntimeException.class, () -> filmStorage.add(film), "Фильм с неизвестным жанром добавлен");
+        //then
+        assertEquals(List.of(), filmStorage.getFilmsList(), "Фильм без жанров остался в базе");
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> filmStorage.addLike(1, 1),
+                "Лайк поставлен несуществующему фильму");
+        assertEquals(HttpStatus.NOT_FOUND, e.getStatus(), "Фильм остался в индексе id");
+    }
+
+    private void addFilmsWithLikes(int count) {
+        for (int i = 0; i < count; i++) {
+            sequence++;
+            User user = User.builder().email("user" + sequence + "@email.ru").login("login" + sequence)
+                    .name("name").birthday(date).build();
+            userStorage.add(user);
+            Film film = Film.builder().name("film" + sequence).description("description")
+                    .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build();
+            film.getGenres().add(new Genre(1, null));
+            film.getGenres().add(new Genre(2, null));
+            filmStorage.add(film);
+            for (int filmId = 1; filmId <= film.getId(); filmId++) {
+                filmStorage.addLike(user.getId(), filmId);
+            }
+        }
+    }
+
+    private int countStatements(Runnable action) {
+        int before = statements.get();
+        action.run();
+        return statements.get() - before;
+    }
+
+    @TestConfiguration
+    static class StatementCountingConfiguration {
+        @Bean
+        static BeanPostProcessor statementCountingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!(bean instanceof DataSource)) {
+                        return bean;
+                    }
+                    return new DelegatingDataSource((DataSource) bean) {
+                        @Override
+                        public Connection getConnection() throws SQLException {
+                            return countStatements(super.getConnection());
+                        }
+                    };
+                }
+            };
+        }
+
+        private static Connection countStatements(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("prepareStatement") || method.getName().equals("createStatement")) {
+                            statements.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FilmSearchIndexTest {
+
+    @Test
+    public void nameMatchRanksAboveDescriptionMatch() {
+        //given
+        FilmSearchIndex index = new FilmSearchIndex();
+        index.put(1, "Другое кино", "Почти как Матрица");
+        index.put(2, "Матрица", "Фильм про хакера");
+        index.put(3, "Хакеры", "Фильм");
+        //when
+        List<Integer> found = index.search("матриц", 10);
+        //then
+        assertEquals(List.of(2, 1), found, "Совпадение в названии должно быть выше совпадения в описании");
+        assertEquals(List.of(3, 2), index.search("ХАКЕР", 10), "Поиск зависит от регистра");
+        assertEquals(List.of(), index.search("дюна", 10), "Найден фильм без совпадений");
+    }
+
+    @Test
+    public void updateReplacesOldTerms() {
+        //given
+        FilmSearchIndex index = new FilmSearchIndex();
+        index.put(1, "Матрица", "Фильм");
+        //when
+        index.put(1, "Нео", "Фильм");
+        //then
+        assertEquals(List.of(), index.search("матрица", 10), "Старое название осталось в индексе");
+        assertEquals(List.of(1), index.search("нео", 10), "Новое название не проиндексировано");
+    }
+
+    @Test
+    public void thresholdDoesNotDependOnMatchedField() {
+        //given
+        FilmSearchIndex index = new FilmSearchIndex();
+        index.put(1, "Дюна", "Фильм");
+        index.put(2, "Фильм", "Дюна");
+        //when
+        // запрос из 4 триграмм, у обоих фильмов совпала одна - меньше половины
+        List<Integer> found = index.search("дюнный", 10);
+        //then
+        assertEquals(List.of(), found, "Порог пройден за счет веса совпадения в названии");
+        assertEquals(List.of(1, 2), index.search("дюн", 10), "Фильм не найден по описанию");
+    }
+
+    @Test
+    public void shortWordsAreIndexedWhole() {
+        //then
+        assertEquals(Set.of("it", "кин", "ино"), FilmSearchIndex.grams("It, кино!"), "Некорректные триграммы");
+    }
+}
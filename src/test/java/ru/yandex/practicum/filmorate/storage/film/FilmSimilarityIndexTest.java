@@ -0,0 +1,87 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FilmSimilarityIndexTest {
+    private static final int USERS = 40;
+    private static final int FILMS = 30;
+    private static final int TOP_K = 3;
+
+    @Test
+    public void incrementalUpdatesMatchFullLoad() {
+        //given
+        Random random = new Random(7);
+        FilmSimilarityIndex incremental = new FilmSimilarityIndex(TOP_K);
+        Set<Long> likes = new TreeSet<>();
+        //when
+        for (int i = 0; i < 3000; i++) {
+            int userId = 1 + random.nextInt(USERS);
+            int filmId = 1 + random.nextInt(FILMS);
+            long like = ((long) userId << 32) | filmId;
+            if (random.nextInt(3) == 0) {
+                likes.remove(like);
+                incremental.removeLike(userId, filmId);
+            } else {
+                likes.add(like);
+                incremental.addLike(userId, filmId);
+            }
+        }
+        FilmSimilarityIndex loaded = load(likes);
+        //then
+        for (int filmId = 1; filmId <= FILMS; filmId++) {
+            assertEquals(loaded.getSimilar(filmId, TOP_K), incremental.getSimilar(filmId, TOP_K),
+                    "Соседи фильма " + filmId + " разошлись с полной пересборкой");
+        }
+        for (int userId = 1; userId <= USERS; userId++) {
+            assertEquals(loaded.recommend(userId, 5), incremental.recommend(userId, 5),
+                    "Рекомендации пользователю " + userId + " разошлись с полной пересборкой");
+        }
+    }
+
+    @Test
+    public void changesDuringLoadAreReplayed() {
+        //given
+        FilmSimilarityIndex index = new FilmSimilarityIndex(TOP_K);
+        index.beginLoad();
+        index.addLike(1, 1);
+        index.addLike(1, 2);
+        index.addLike(2, 3);
+        index.removeLike(2, 3);
+        //when
+        index.load(new int[]{1, 2}, new int[]{1, 3}, 2);
+        //then
+        assertEquals(List.of(2), index.getSimilar(1, 10), "Лайк, пришедший во время пересборки, потерян");
+        assertEquals(List.of(), index.getSimilar(3, 10), "Удаление, пришедшее во время пересборки, потеряно");
+        index.addLike(1, 1);
+        assertEquals(List.of(1), index.getSimilar(2, 10), "Повторный лайк задвоил счетчик");
+    }
+
+    @Test
+    public void recommendSkipsLikedFilms() {
+        //given
+        FilmSimilarityIndex index = new FilmSimilarityIndex(TOP_K);
+        index.load(new int[]{1, 1, 1, 2, 2, 3, 3}, new int[]{1, 2, 3, 1, 2, 1, 4}, 7);
+        //when
+        List<Integer> recommended = index.recommend(2, 10);
+        //then
+        assertEquals(List.of(3, 4), recommended, "Некорректные рекомендации");
+        assertEquals(List.of(), index.recommend(9, 10), "Рекомендации пользователю без лайков");
+    }
+
+    private FilmSimilarityIndex load(Set<Long> likes) {
+        int[] userIds = new int[likes.size()];
+        int[] filmIds = new int[likes.size()];
+        int i = 0;
+        for (long like : likes) {
+            userIds[i] = (int) (like >>> 32);
+            filmIds[i++] = (int) like;
+        }
+        FilmSimilarityIndex index = new FilmSimilarityIndex(TOP_K);
+        index.load(userIds, filmIds, likes.size());
+        return index;
+    }
+}
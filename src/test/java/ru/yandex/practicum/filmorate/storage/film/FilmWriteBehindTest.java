@@ -0,0 +1,64 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.Reloadable;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "filmorate.likes.write-behind.enabled=true")
+@AutoConfigureTestDatabase
+@Sql(scripts = {"file:src/main/resources/schema.sql"})
+public class FilmWriteBehindTest {
+    private static final LocalDate date = LocalDate.of(2000, 1, 1);
+
+    @Autowired
+    private FilmDbStorage filmStorage;
+    @Autowired
+    @Qualifier("UserDbStorage")
+    private UserStorage userStorage;
+    @Autowired
+    private List<Reloadable> storages;
+
+    @BeforeEach
+    public void reloadStorages() {
+        storages.forEach(Reloadable::reload);
+    }
+
+    @Test
+    public void likesAreWrittenAfterFlush() throws InterruptedException {
+        //given
+        for (int i = 1; i <= 2; i++) {
+            userStorage.add(User.builder().email("user" + i + "@email.ru").login("login" + i).name("name")
+                    .birthday(date).build());
+            filmStorage.add(Film.builder().name("film" + i).description("description")
+                    .releaseDate(date).duration(60).mpa(new Mpa(1, null)).build());
+        }
+        //when
+        filmStorage.addLike(1, 2);
+        filmStorage.addLike(2, 2);
+        filmStorage.addLike(1, 1);
+        filmStorage.deleteLike(1, 1);
+        filmStorage.addLike(2, 2);
+        filmStorage.flushLikes();
+        //then
+        assertEquals(2, filmStorage.getFilm(2).getLikesCount(), "Некорректное кол-во лайков");
+        assertEquals(0, filmStorage.getFilm(1).getLikesCount(), "Отмененный лайк записан");
+        assertEquals(List.of(2, 1), List.of(filmStorage.getMostLikedFilms(2, null, null).get(0).getId(),
+                filmStorage.getMostLikedFilms(2, null, null).get(1).getId()), "like_count не обновлен");
+        assertEquals(filmStorage.getMostLikedFilms(2, null, null), filmStorage.getPopularFilms(2, null, null),
+                "Рейтинг не обновлен");
+    }
+}
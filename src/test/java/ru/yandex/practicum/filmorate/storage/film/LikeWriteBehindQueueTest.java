@@ -0,0 +1,79 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Like;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LikeWriteBehindQueueTest {
+
+    @Test
+    public void likeAndUnlikeInOneWindowCoalesce() throws InterruptedException {
+        //given
+        List<Like> likes = new ArrayList<>();
+        List<Like> unlikes = new ArrayList<>();
+        LikeWriteBehindQueue queue = new LikeWriteBehindQueue(16, 100, Duration.ofMillis(200), Duration.ZERO,
+                (l, u) -> {
+                    likes.addAll(l);
+                    unlikes.addAll(u);
+                });
+        //when
+        queue.offer(1, 1, true);
+        queue.offer(1, 1, false);
+        queue.offer(2, 1, true);
+        queue.offer(2, 1, true);
+        queue.flush();
+        queue.close();
+        //then
+        assertEquals(List.of(new Like(2, 1)), likes, "Лайки не схлопнулись");
+        assertEquals(List.of(new Like(1, 1)), unlikes, "Лайк и его отмена дали INSERT");
+    }
+
+    @Test
+    public void fullBufferRejectsOffer() throws InterruptedException {
+        //given
+        CountDownLatch release = new CountDownLatch(1);
+        LikeWriteBehindQueue queue = new LikeWriteBehindQueue(2, 1, Duration.ZERO, Duration.ofMillis(10),
+                (l, u) -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        queue.offer(1, 1, true);
+        while (queue.size() > 0) {
+            Thread.sleep(1);
+        }
+        //when
+        boolean second = queue.offer(1, 2, true);
+        boolean third = queue.offer(1, 3, true);
+        boolean fourth = queue.offer(1, 4, true);
+        release.countDown();
+        queue.close();
+        //then
+        assertTrue(second && third, "Операция не принята при свободном месте");
+        assertFalse(fourth, "Операция принята в полный буфер");
+    }
+
+    @Test
+    public void closeDrainsAcceptedOperations() throws InterruptedException {
+        //given
+        List<Like> likes = new ArrayList<>();
+        LikeWriteBehindQueue queue = new LikeWriteBehindQueue(1000, 10, Duration.ofSeconds(10), Duration.ZERO,
+                (l, u) -> likes.addAll(l));
+        for (int i = 1; i <= 25; i++) {
+            queue.offer(i, 1, true);
+        }
+        //when
+        queue.close();
+        //then
+        assertEquals(25, likes.size(), "Принятые операции потеряны при остановке");
+        assertFalse(queue.offer(26, 1, true), "Операция принята после остановки");
+    }
+}
@@ -0,0 +1,53 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FriendGraphTest {
+
+    @Test
+    public void loadsSortedFriendLists() {
+        //given
+        FriendGraph graph = new FriendGraph();
+        //when
+        graph.load(new int[]{1, 1, 1, 3, 3}, new int[]{2, 3, 5, 1, 5}, 5);
+        //then
+        assertArrayEquals(new int[]{2, 3, 5}, graph.friends(1), "Некорректные друзья");
+        assertArrayEquals(new int[0], graph.friends(2), "У пользователя без друзей есть друзья");
+        assertArrayEquals(new int[]{5}, graph.commonFriends(1, 3), "Некорректные общие друзья");
+        assertArrayEquals(new int[0], graph.friends(100), "У неизвестного пользователя есть друзья");
+    }
+
+    @Test
+    public void addAndRemoveKeepOrder() {
+        //given
+        FriendGraph graph = new FriendGraph();
+        graph.load(new int[]{1, 1}, new int[]{2, 6}, 2);
+        //when
+        assertTrue(graph.add(1, 4), "Друг не добавлен");
+        assertFalse(graph.add(1, 4), "Друг добавлен дважды");
+        assertTrue(graph.add(7, 2), "Друг не добавлен пользователю вне CSR");
+        assertTrue(graph.remove(1, 2), "Друг не удален");
+        assertFalse(graph.remove(1, 3), "Удален несуществующий друг");
+        //then
+        assertArrayEquals(new int[]{4, 6}, graph.friends(1), "Некорректные друзья");
+        assertArrayEquals(new int[]{2}, graph.friends(7), "Некорректные друзья");
+    }
+
+    @Test
+    public void compactionKeepsAllChanges() {
+        //given
+        FriendGraph graph = new FriendGraph();
+        graph.load(new int[]{1}, new int[]{2}, 1);
+        //when
+        for (int userId = 2; userId <= 3000; userId++) {
+            graph.add(userId, userId + 1);
+            graph.add(userId, 1);
+        }
+        //then
+        assertArrayEquals(new int[]{2}, graph.friends(1), "Некорректные друзья после пересборки");
+        assertArrayEquals(new int[]{1, 3001}, graph.friends(3000), "Некорректные друзья после пересборки");
+        assertArrayEquals(new int[]{1}, graph.commonFriends(10, 2000), "Некорректные общие друзья");
+    }
+}
@@ -0,0 +1,95 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Рекомендации для пользователя-хаба с десятками тысяч друзей: сравнение последовательного расчета
+ * с расчетом в пуле ForkJoin и с наивным подсчетом через HashMap. Время пишется в лог.
+ */
+@Slf4j
+public class FriendRecommendationBenchmarkTest {
+    private static final int USERS = 200_000;
+    private static final int HUB_FRIENDS = 30_000;
+    private static final int FRIENDS_PER_USER = 40;
+    private static final int COUNT = 20;
+    private static final int RUNS = 5;
+
+    @Test
+    public void hubRecommendationsMatchNaiveCount() {
+        //given
+        int[][] edges = makeGraph();
+        FriendGraph sequential = new FriendGraph(Integer.MAX_VALUE);
+        FriendGraph parallel = new FriendGraph();
+        sequential.load(edges[0], edges[1], edges[0].length);
+        parallel.load(edges[0], edges[1], edges[0].length);
+        List<Integer> expected = naiveRecommend(edges, 1, COUNT);
+        //when
+        List<Integer> sequentialResult = sequential.recommend(1, COUNT);
+        List<Integer> parallelResult = parallel.recommend(1, COUNT);
+        long sequentialNanos = measure(sequential);
+        long parallelNanos = measure(parallel);
+        //then
+        log.info("Рекомендации для хаба с " + HUB_FRIENDS + " друзьями: последовательно "
+                + sequentialNanos / 1_000_000 + " мс, ForkJoin " + parallelNanos / 1_000_000 + " мс");
+        assertEquals(expected, sequentialResult, "Рекомендации не совпадают с наивным подсчетом");
+        assertEquals(expected, parallelResult, "Рекомендации ForkJoin не совпадают с последовательными");
+    }
+
+    private long measure(FriendGraph graph) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            graph.recommend(1, COUNT);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private int[][] makeGraph() {
+        Random random = new Random(42);
+        List<int[]> pairs = new ArrayList<>();
+        for (int userId = 1; userId <= USERS; userId++) {
+            Set<Integer> friends = new TreeSet<>();
+            int degree = userId == 1 ? HUB_FRIENDS : FRIENDS_PER_USER;
+            while (friends.size() < degree) {
+                int friendId = 1 + random.nextInt(USERS);
+                if (friendId != userId) {
+                    friends.add(friendId);
+                }
+            }
+            for (int friendId : friends) {
+                pairs.add(new int[]{userId, friendId});
+            }
+        }
+        int[][] edges = new int[2][pairs.size()];
+        for (int i = 0; i < pairs.size(); i++) {
+            edges[0][i] = pairs.get(i)[0];
+            edges[1][i] = pairs.get(i)[1];
+        }
+        return edges;
+    }
+
+    private List<Integer> naiveRecommend(int[][] edges, int userId, int count) {
+        Map<Integer, Set<Integer>> friends = new HashMap<>();
+        for (int i = 0; i < edges[0].length; i++) {
+            friends.computeIfAbsent(edges[0][i], id -> new HashSet<>()).add(edges[1][i]);
+        }
+        Set<Integer> own = friends.get(userId);
+        Map<Integer, Integer> scores = new HashMap<>();
+        for (int friendId : own) {
+            for (int candidate : friends.getOrDefault(friendId, Set.of())) {
+                if (candidate != userId && !own.contains(candidate)) {
+                    scores.merge(candidate, 1, Integer::sum);
+                }
+            }
+        }
+        List<Integer> candidates = new ArrayList<>(scores.keySet());
+        candidates.sort(Comparator.comparing((Integer id) -> -scores.get(id)).thenComparing(id -> id));
+        return candidates.subList(0, Math.min(count, candidates.size()));
+    }
+}
@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserMemoryStorageTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void stateSurvivesRestart() {
+        //given
+        UserMemoryStorage storage = open();
+        for (int i = 1; i <= 3; i++) {
+            storage.add(User.builder().email("user" + i + "@mail.ru").login("user" + i).name("name" + i)
+                    .birthday(LocalDate.of(1990, 1, i)).build());
+        }
+        storage.addFriend(1, 2);
+        storage.checkpoint();
+        storage.addFriend(1, 3);
+        storage.deleteFriend(1, 2);
+        User renamed = storage.getUser(3);
+        renamed.setName("renamed");
+        storage.update(renamed);
+        storage.checkpoint();
+        storage.addFriend(2, 3);
+        //when
+        // хранилище не закрыто, как при падении: последняя дружба есть только в журнале
+        UserMemoryStorage restarted = open();
+        //then
+        assertEquals(3, restarted.getUsersList().size(), "Пользователи потеряны после перезапуска");
+        assertEquals(List.of(3), ids(restarted.getFriends(1)), "Друзья первого пользователя не восстановлены");
+        assertEquals(List.of(3), ids(restarted.getFriends(2)), "Друзья из журнала после точки не восстановлены");
+        assertEquals("renamed", restarted.getUser(3).getName(), "Изменение пользователя не восстановлено");
+        restarted.add(User.builder().email("user4@mail.ru").login("user4").name("name4")
+                .birthday(LocalDate.of(1990, 1, 4)).build());
+        assertTrue(restarted.contains(4), "Нумерация id не продолжилась");
+        assertThrows(RuntimeException.class, () -> restarted.add(User.builder().email("user1@mail.ru")
+                .login("other").name("other").birthday(LocalDate.of(1990, 1, 5)).build()),
+                "Занятый email не восстановлен");
+        restarted.close();
+    }
+
+    @Test
+    public void rejectedDuplicateDoesNotTakeId() {
+        //given
+        UserMemoryStorage storage = open();
+        storage.add(User.builder().email("user1@mail.ru").login("user1").name("name1")
+                .birthday(LocalDate.of(1990, 1, 1)).build());
+        //when
+        assertThrows(RuntimeException.class, () -> storage.add(User.builder().email("other@mail.ru")
+                .login("user1").name("other").birthday(LocalDate.of(1990, 1, 2)).build()), "Дубль логина добавлен");
+        User second = User.builder().email("other@mail.ru").login("user2").name("name2")
+                .birthday(LocalDate.of(1990, 1, 3)).build();
+        storage.add(second);
+        //then
+        assertEquals(2, second.getId(), "Отклоненный дубль израсходовал id");
+        storage.close();
+    }
+
+    private UserMemoryStorage open() {
+        UserMemoryStorage storage = new UserMemoryStorage(new UserTasteIndex(32, 3), directory.toString(), false, 4,
+                Duration.ZERO);
+        storage.reload();
+        return storage;
+    }
+
+    private static List<Integer> ids(List<User> users) {
+        return users.stream().map(User::getId).collect(Collectors.toList());
+    }
+}
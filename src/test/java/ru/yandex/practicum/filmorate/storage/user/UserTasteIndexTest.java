@@ -0,0 +1,118 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+public class UserTasteIndexTest {
+    private static final int USERS = 3000;
+    private static final int FILMS = 2000;
+    private static final int CLUSTERS = 60;
+    private static final int CLUSTER_FILMS = 30;
+    private static final int CLUSTER_LIKES = 24;
+    private static final int RANDOM_LIKES = 3;
+    private static final int QUERIES = 300;
+    private static final int COUNT = 10;
+    private static final double SIMILAR = 0.5;
+
+    /**
+     * Пользователи из одного кластера лайкают большую часть его фильмов и несколько случайных.
+     * Точные соседи с коэффициентом Жаккара от SIMILAR считаются перебором всех пар,
+     * полнота - доля из них, которую вернул индекс.
+     */
+    @Test
+    public void recallAgainstExactJaccard() {
+        //given
+        Random random = new Random(11);
+        int[][] likes = new int[USERS + 1][];
+        for (int userId = 1; userId <= USERS; userId++) {
+            int cluster = random.nextInt(CLUSTERS);
+            Set<Integer> films = new TreeSet<>();
+            while (films.size() < CLUSTER_LIKES) {
+                films.add(1 + cluster * CLUSTER_FILMS + random.nextInt(CLUSTER_FILMS));
+            }
+            while (films.size() < CLUSTER_LIKES + RANDOM_LIKES) {
+                films.add(1 + random.nextInt(FILMS));
+            }
+            likes[userId] = films.stream().mapToInt(Integer::intValue).toArray();
+        }
+        UserTasteIndex index = new UserTasteIndex(32, 3);
+        load(index, likes);
+        //when
+        int relevant = 0;
+        int found = 0;
+        long start = System.nanoTime();
+        for (int userId = 1; userId <= QUERIES; userId++) {
+            List<Integer> similar = index.similar(userId, COUNT);
+            for (int otherId : exactTop(likes, userId)) {
+                relevant++;
+                if (similar.contains(otherId)) {
+                    found++;
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        //then
+        double recall = (double) found / relevant;
+        log.info("Полнота MinHash/LSH: " + recall + " (" + found + " из " + relevant + "), запросов: " + QUERIES
+                + ", вместе с точным перебором: " + nanos / 1_000_000 + " мс");
+        assertTrue(relevant > QUERIES, "В синтетических данных нет похожих пользователей");
+        assertTrue(recall >= 0.9, "Полнота ниже 0.9: " + recall);
+    }
+
+    @Test
+    public void signatureFollowsLikes() {
+        //given
+        UserTasteIndex index = new UserTasteIndex(32, 3);
+        index.load(new int[]{1, 1, 1, 2, 2, 2}, new int[]{1, 2, 3, 1, 2, 3}, 6);
+        //when
+        index.addLike(3, 1);
+        index.addLike(3, 2);
+        index.addLike(3, 3);
+        //then
+        assertEquals(List.of(2, 3), index.similar(1, 10), "Пользователь с теми же лайками не найден");
+        //when
+        index.removeLike(2, 1);
+        index.removeLike(2, 2);
+        index.removeLike(2, 3);
+        index.addLike(2, 100);
+        //then
+        assertEquals(List.of(3), index.similar(1, 10), "Сигнатура не обновилась после удаления лайков");
+        assertEquals(List.of(), index.similar(2, 10), "Найден пользователь без общих лайков");
+        assertEquals(List.of(), index.similar(4, 10), "Найдены похожие для пользователя без лайков");
+    }
+
+    private List<Integer> exactTop(int[][] likes, int userId) {
+        Map<Integer, Double> scores = new HashMap<>();
+        for (int otherId = 1; otherId < likes.length; otherId++) {
+            double score = UserTasteIndex.jaccard(likes[userId], likes[otherId]);
+            if (otherId != userId && score >= SIMILAR) {
+                scores.put(otherId, score);
+            }
+        }
+        List<Integer> top = new ArrayList<>(scores.keySet());
+        top.sort(Comparator.comparing((Integer id) -> -scores.get(id)).thenComparing(id -> id));
+        return top.subList(0, Math.min(COUNT, top.size()));
+    }
+
+    private void load(UserTasteIndex index, int[][] likes) {
+        int size = 0;
+        for (int userId = 1; userId < likes.length; userId++) {
+            size += likes[userId].length;
+        }
+        int[] userIds = new int[size];
+        int[] filmIds = new int[size];
+        int i = 0;
+        for (int userId = 1; userId < likes.length; userId++) {
+            for (int filmId : likes[userId]) {
+                userIds[i] = userId;
+                filmIds[i++] = filmId;
+            }
+        }
+        index.load(userIds, filmIds, size);
+    }
+}